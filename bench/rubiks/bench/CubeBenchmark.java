@@ -0,0 +1,113 @@
+package rubiks.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rubiks.sequential.Cube;
+import rubiks.sequential.CubeCache;
+
+/**
+ * Operations on single cubes done by every search: twisting on each axis,
+ * copying, checking if a cube is solved, and creating all children of a cube
+ * with a {@link CubeCache}, as the reference search does.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CubeBenchmark {
+
+    // number of random twists done in turn, a power of two
+    private static final int MOVES = 1024;
+
+    @Param({ "2", "3", "4", "7" })
+    public int size;
+
+    // axis twisted: 0 = X, 1 = Y, 2 = Z
+    @Param({ "0", "1", "2" })
+    public int axis;
+
+    private Cube cube;
+
+    private Cube scrambled;
+
+    private Cube target;
+
+    private CubeCache cache;
+
+    // random twists on the axis, each of any row and direction
+    private int[] moves;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        scrambled = new Cube(size, 20, 42);
+        target = new Cube(size);
+        cache = new CubeCache(size);
+
+        // twists of an axis are numbered by row, then direction
+        int first = axis * (size - 1) * 2;
+        Random random = new Random(42);
+        moves = new int[MOVES];
+        for (int i = 0; i < MOVES; i++) {
+            moves[i] = first + random.nextInt((size - 1) * 2);
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void setupIteration() {
+        // a new cube every iteration, so its count of twists stays small
+        cube = new Cube(scrambled);
+    }
+
+    @Benchmark
+    public Cube twist() {
+        cube.twist(moves[next++ & (MOVES - 1)]);
+        return cube;
+    }
+
+    @Benchmark
+    public Cube copyTo() {
+        scrambled.copyTo(target);
+        return target;
+    }
+
+    @Benchmark
+    public boolean isSolved() {
+        return scrambled.isSolved();
+    }
+
+    @Benchmark
+    public Cube[] generateChildren() {
+        Cube[] children = scrambled.generateChildren(cache);
+        for (Cube child : children) {
+            cache.put(child);
+        }
+        return children;
+    }
+
+    @Benchmark
+    public Cube cache() {
+        Cube result = cache.get();
+        cache.put(result);
+        return result;
+    }
+
+}
@@ -0,0 +1,105 @@
+package rubiks.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Compares the packed layouts of 2x2x2 and 3x3x3 cubes with the generic byte
+ * per element layout, on the operations done at every node of a search:
+ * twisting, copying and checking if a cube is solved.
+ *
+ * The layout of a size is chosen once per JVM, so every combination of
+ * parameters runs in a fork of its own, which sets the property selecting the
+ * generic layout before creating any cube.
+ *
+ * Run with "ant bench -Djmh.lib=DIR", with DIR holding the JMH jars.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutBenchmark {
+
+    // number of random twists done in turn, a power of two
+    private static final int MOVES = 1024;
+
+    @Param({ "2", "3" })
+    public int size;
+
+    @Param({ "false", "true" })
+    public boolean generic;
+
+    private Cube cube;
+
+    private Cube scrambled;
+
+    private Cube solved;
+
+    private Cube target;
+
+    private int[] moves;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        System.setProperty("rubiks.layout.generic", Boolean.toString(generic));
+
+        cube = new Cube(size, 20, 42);
+        scrambled = new Cube(cube);
+        solved = new Cube(size);
+        target = new Cube(size);
+
+        Random random = new Random(42);
+        moves = new int[MOVES];
+        for (int i = 0; i < MOVES; i++) {
+            moves[i] = random.nextInt(cube.getMoveCount());
+        }
+    }
+
+    @Benchmark
+    public Cube twist() {
+        cube.twist(moves[next++ & (MOVES - 1)]);
+        return cube;
+    }
+
+    @Benchmark
+    public boolean twistSolved() {
+        cube.twist(moves[next++ & (MOVES - 1)]);
+        return cube.isSolved();
+    }
+
+    @Benchmark
+    public Cube copy() {
+        scrambled.copyTo(target);
+        return target;
+    }
+
+    @Benchmark
+    public boolean solvedScrambled() {
+        return scrambled.isSolved();
+    }
+
+    @Benchmark
+    public boolean solvedSolved() {
+        return solved.isSolved();
+    }
+
+}
@@ -0,0 +1,77 @@
+package rubiks.bench;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import rubiks.search.Heuristic;
+import rubiks.sequential.Cube;
+import rubiks.sequential.Rubiks;
+import rubiks.sequential.Solver;
+
+/**
+ * Solves whole cubes the way the sequential application does: trying each
+ * bound in turn until solutions are found. Each cube is given as
+ * "size:twists:seed", as for the --size, --twists and --seed options.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SolveBenchmark {
+
+    @Param({ "2:9:0", "3:8:5", "3:11:0", "4:6:3", "5:4:7" })
+    public String cube;
+
+    @Param({ "none", "facelets" })
+    public String heuristic;
+
+    private Cube start;
+
+    private Solver solver;
+
+    @Setup
+    public void setup() throws Exception {
+        String[] parts = cube.split(":");
+        int size = Integer.parseInt(parts[0]);
+        int twists = Integer.parseInt(parts[1]);
+        long seed = Long.parseLong(parts[2]);
+
+        start = new Cube(size, twists, seed);
+        Heuristic estimate = Rubiks.createHeuristic(heuristic,
+                new ArrayList<String>(), start);
+        solver = new Solver(size, true, estimate);
+    }
+
+    /**
+     * Returns the number of solutions of the first bound with any, times the
+     * bound, so a wrong result is easy to spot.
+     */
+    @Benchmark
+    public int solve() {
+        int bound = 0;
+        int result = 0;
+
+        while (result == 0) {
+            bound++;
+            start.setBound(bound);
+            result = solver.solutions(start);
+        }
+        return result * bound;
+    }
+
+}
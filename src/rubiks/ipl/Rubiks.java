@@ -0,0 +1,445 @@
+package rubiks.ipl;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.IbisCapabilities;
+import ibis.ipl.IbisFactory;
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.PortType;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import rubiks.search.Heuristic;
+import rubiks.sequential.Cube;
+import rubiks.sequential.Solver;
+import rubiks.sequential.Subtree;
+
+/**
+ * Distributed solver for rubik's cube puzzle, using IPL.
+ *
+ * One machine is elected master. For every bound, the master splits the search
+ * tree into subtrees, and deals them out evenly to all machines, including
+ * itself (its node runs in a separate thread). Every machine keeps the
+ * subtrees it still has to search in a deque. A machine with an empty deque
+ * asks a random other machine for work, which then gives away half of its
+ * deque. As subtrees differ a lot in size, this keeps all machines busy until
+ * the very end of a bound.
+ *
+ * Machines report the number of subtrees they searched, and the number of
+ * solutions found in them, to the master. When all subtrees of a bound are
+ * reported, the bound is done everywhere: the master sends out the next bound,
+ * or tells the machines to stop.
+ *
+ * Only the master prints to standard out, so the output is the same as the
+ * output of the sequential version.
+ *
+ */
+public class Rubiks {
+
+    // reports of searched subtrees (machines to master)
+    static final PortType REPORT_PORT = new PortType(
+            PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_DATA,
+            PortType.RECEIVE_EXPLICIT, PortType.CONNECTION_MANY_TO_ONE);
+
+    // members of the pool, subtrees of a bound, and the end of the search
+    // (master to a machine). Idle machines wait for it with a timeout
+    // between requests for work.
+    static final PortType CONTROL_PORT = new PortType(
+            PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_OBJECT,
+            PortType.RECEIVE_EXPLICIT, PortType.RECEIVE_POLL,
+            PortType.RECEIVE_TIMEOUT, PortType.CONNECTION_ONE_TO_ONE);
+
+    // requests for work (idle machine to a random other machine)
+    static final PortType STEAL_PORT = new PortType(
+            PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_DATA,
+            PortType.RECEIVE_AUTO_UPCALLS, PortType.CONNECTION_MANY_TO_ONE);
+
+    // subtrees given away, possibly none (answer to a request for work)
+    static final PortType LOOT_PORT = new PortType(
+            PortType.COMMUNICATION_RELIABLE, PortType.SERIALIZATION_OBJECT,
+            PortType.RECEIVE_EXPLICIT, PortType.CONNECTION_MANY_TO_ONE);
+
+    static final IbisCapabilities CAPABILITIES = new IbisCapabilities(
+            IbisCapabilities.ELECTIONS_STRICT, IbisCapabilities.CLOSED_WORLD);
+
+    static final String REPORT_PORT_NAME = "reports";
+
+    static final String CONTROL_PORT_NAME = "control";
+
+    static final String STEAL_PORT_NAME = "steal";
+
+    static final String LOOT_PORT_NAME = "loot";
+
+    // how long to keep trying to connect, in milliseconds
+    static final long CONNECT_TIMEOUT = 60000;
+
+    // control messages: all machines in the pool, the subtrees of a bound, no
+    // more bounds to search, and leave the pool
+    static final int START = 0;
+
+    static final int BOUND = 1;
+
+    static final int STOP = 2;
+
+    static final int EXIT = 3;
+
+    // reports without searched subtrees: a machine joined, or a machine
+    // stopped asking others for work
+    static final int HELLO = -1;
+
+    static final int STOPPED = -2;
+
+    private final Ibis ibis;
+
+    private final ReceivePort reports;
+
+    // all machines, and the ports to send them control messages
+    private final List<IbisIdentifier> nodes = new ArrayList<IbisIdentifier>();
+
+    private final List<SendPort> control = new ArrayList<SendPort>();
+
+    private Rubiks(Ibis ibis) throws IOException {
+        this.ibis = ibis;
+        reports = ibis.createReceivePort(REPORT_PORT, REPORT_PORT_NAME);
+        reports.enableConnections();
+    }
+
+    /**
+     * Waits until all machines joined, and tells them who the others are.
+     *
+     * @param poolSize
+     *            number of machines
+     */
+    private void start(int poolSize) throws IOException {
+        while (nodes.size() < poolSize) {
+            ReadMessage report = reports.receive();
+            IbisIdentifier node = report.origin().ibisIdentifier();
+            int count = report.readInt();
+            report.finish();
+
+            if (count != HELLO) {
+                throw new Error("unexpected report from " + node);
+            }
+            nodes.add(node);
+        }
+
+        IbisIdentifier[] members = nodes.toArray(new IbisIdentifier[nodes
+                .size()]);
+        for (IbisIdentifier node : nodes) {
+            SendPort port = ibis.createSendPort(CONTROL_PORT);
+            port.connect(node, CONTROL_PORT_NAME, CONNECT_TIMEOUT, true);
+            control.add(port);
+
+            WriteMessage message = port.newMessage();
+            message.writeInt(START);
+            message.writeObject(members);
+            message.finish();
+        }
+    }
+
+    /**
+     * Finds all solutions for a given cube, up to the bound set in the cube,
+     * using all machines.
+     *
+     * @param cube
+     *            cube to solve
+     * @param solver
+     *            solver used to split the search tree
+     * @param splitDepth
+     *            depth of the subtrees dealt out to machines
+     * @return the number of solutions found
+     * @throws IOException
+     *             in case of trouble
+     */
+    private int solutions(Cube cube, Solver solver, int splitDepth)
+            throws IOException {
+        List<Subtree> subtrees = new ArrayList<Subtree>();
+        int result = solver.split(cube, splitDepth, subtrees);
+
+        // deal out subtrees one at a time, so neighbouring (similar) subtrees
+        // end up on different machines
+        for (int i = 0; i < nodes.size(); i++) {
+            List<Subtree> share = new ArrayList<Subtree>();
+            for (int j = i; j < subtrees.size(); j += nodes.size()) {
+                share.add(subtrees.get(j));
+            }
+
+            WriteMessage message = control.get(i).newMessage();
+            message.writeInt(BOUND);
+            // a new object every time, as the bound of the cube changes
+            message.writeObject(new Cube(cube));
+            message.writeObject(share.toArray(new Subtree[share.size()]));
+            message.finish();
+        }
+
+        // subtrees move between machines, but are only reported once
+        int done = 0;
+        while (done < subtrees.size()) {
+            ReadMessage report = reports.receive();
+            int count = report.readInt();
+            int solutions = report.readInt();
+            report.finish();
+
+            if (count < 0) {
+                throw new Error("unexpected report from "
+                        + report.origin().ibisIdentifier());
+            }
+            done += count;
+            result += solutions;
+        }
+
+        return result;
+    }
+
+    /**
+     * Tells all machines the search is done. Machines only leave the pool
+     * when all of them stopped asking others for work, so no request for work
+     * is sent to a machine that left.
+     */
+    private void stop() throws IOException {
+        broadcast(STOP);
+
+        int stopped = 0;
+        while (stopped < nodes.size()) {
+            ReadMessage report = reports.receive();
+            int count = report.readInt();
+            report.finish();
+
+            if (count != STOPPED) {
+                throw new Error("unexpected report from "
+                        + report.origin().ibisIdentifier());
+            }
+            stopped++;
+        }
+
+        broadcast(EXIT);
+
+        for (SendPort port : control) {
+            port.close();
+        }
+        control.clear();
+        nodes.clear();
+
+        reports.close();
+    }
+
+    /**
+     * Sends a control message without content to all machines.
+     */
+    private void broadcast(int type) throws IOException {
+        for (SendPort port : control) {
+            WriteMessage message = port.newMessage();
+            message.writeInt(type);
+            message.finish();
+        }
+    }
+
+    /**
+     * Solves a Rubik's cube by iteratively searching for solutions with a
+     * greater depth. This guarantees the optimal solution is found. Repeats all
+     * work for the previous iteration each iteration though...
+     *
+     * @param cube
+     *            the cube to solve
+     * @param solver
+     *            solver used to split the search tree
+     * @param splitDepth
+     *            depth of the subtrees dealt out to machines
+     */
+    private void solve(Cube cube, Solver solver, int splitDepth)
+            throws IOException {
+        int bound = 0;
+        int result = 0;
+
+        System.out.print("Bound now:");
+
+        while (result == 0) {
+            bound++;
+            cube.setBound(bound);
+
+            System.out.print(" " + bound);
+            result = solutions(cube, solver, splitDepth);
+        }
+
+        System.out.println();
+        System.out.println("Solving cube possible in " + result + " ways of "
+                + bound + " steps");
+    }
+
+    public static void printUsage() {
+        System.out.println("Rubiks Cube solver");
+        System.out.println("");
+        System.out
+                .println("Does a number of random twists, then solves the rubiks cube with a simple");
+        System.out
+                .println(" brute-force approach, using all machines in the pool. Can also take a file as input");
+        System.out.println("");
+        System.out.println("USAGE: Rubiks [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out.println("--size SIZE\t\tSize of cube (default: 3)");
+        System.out
+                .println("--twists TWISTS\t\tNumber of random twists (default: 11)");
+        System.out
+                .println("--seed SEED\t\tSeed of random generator (default: 0");
+        System.out
+                .println("--split-depth DEPTH\t\tDepth of the parts of the search dealt out to machines (default: 3)");
+        System.out
+                .println("--table-memory MB\t\tRemember the number of solutions of states searched before in up to MB megabytes on every machine (default: 0, off)");
+        System.out.println("");
+        System.out
+                .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--no-pruning\t\tAlso search redundant sequences of twists (slow)");
+        System.out
+                .println("--symmetry\t\tDeal out only one of the parts of the search which are symmetric to each other");
+        System.out
+                .println("--heuristic NAME\t\tLower bound used to cut off the search: none or facelets (default: facelets)");
+        System.out
+                .println("--pattern FILE_NAME\t\tUse pattern database (see PatternGenerator) as heuristic, may be given more than once");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        Cube cube = null;
+
+        // default parameters of puzzle
+        int size = 3;
+        int twists = 11;
+        int seed = 0;
+        String fileName = null;
+        boolean pruning = true;
+        boolean symmetry = false;
+        String heuristicName = "facelets";
+        List<String> patternFiles = new ArrayList<String>();
+        int splitDepth = 3;
+
+        // memory used to remember states searched before, in megabytes
+        long tableMemory = 0;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--size")) {
+                i++;
+                size = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--twists")) {
+                i++;
+                twists = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--seed")) {
+                i++;
+                seed = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--split-depth")) {
+                i++;
+                splitDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--table-memory")) {
+                i++;
+                tableMemory = Long.parseLong(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--file")) {
+                i++;
+                fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--no-pruning")) {
+                pruning = false;
+            } else if (arguments[i].equalsIgnoreCase("--symmetry")) {
+                symmetry = true;
+            } else if (arguments[i].equalsIgnoreCase("--heuristic")) {
+                i++;
+                heuristicName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--pattern")) {
+                i++;
+                patternFiles.add(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        try {
+            Ibis ibis = IbisFactory.createIbis(CAPABILITIES, null,
+                    REPORT_PORT, CONTROL_PORT, STEAL_PORT, LOOT_PORT);
+            IbisIdentifier masterIdentifier = ibis.registry().elect("Master");
+
+            Worker worker = new Worker(ibis, masterIdentifier, pruning,
+                    heuristicName, patternFiles, tableMemory * 1024 * 1024);
+
+            if (!masterIdentifier.equals(ibis.identifier())) {
+                worker.work();
+                ibis.end();
+                return;
+            }
+
+            Rubiks master = new Rubiks(ibis);
+
+            // the master also does work
+            Thread workerThread = new Thread(worker, "worker");
+            workerThread.start();
+
+            master.start(ibis.registry().getPoolSize());
+
+            // create cube
+            if (fileName == null) {
+                cube = new Cube(size, twists, seed);
+            } else {
+                try {
+                    cube = new Cube(fileName);
+                } catch (Exception e) {
+                    System.err.println("Cannot load cube from file: " + e);
+                    System.exit(1);
+                }
+            }
+
+            Heuristic heuristic = null;
+            try {
+                heuristic = rubiks.sequential.Rubiks.createHeuristic(
+                        heuristicName, patternFiles, cube);
+            } catch (Exception e) {
+                System.err.println("Cannot create heuristic: " + e);
+                System.exit(1);
+            }
+            Solver solver = new Solver(cube.getSize(), pruning, heuristic,
+                    symmetry ? splitDepth : 0);
+
+            // print cube info
+            System.out.println("Searching for solution for cube of size "
+                    + cube.getSize() + ", twists = " + twists + ", seed = "
+                    + seed);
+            cube.print(System.out);
+            System.out.flush();
+
+            // solve
+            long start = System.currentTimeMillis();
+            master.solve(cube, solver, splitDepth);
+            long end = System.currentTimeMillis();
+
+            // NOTE: this is printed to standard error! The rest of the output
+            // is constant for each set of parameters. Printing this to
+            // standard error makes the output of standard out comparable with
+            // "diff"
+            System.err.println("Solving cube took " + (end - start)
+                    + " milliseconds");
+
+            master.stop();
+            workerThread.join();
+            ibis.end();
+        } catch (Exception e) {
+            System.err.println("Distributed solver failed: " + e);
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+}
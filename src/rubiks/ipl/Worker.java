@@ -0,0 +1,373 @@
+package rubiks.ipl;
+
+import ibis.ipl.Ibis;
+import ibis.ipl.IbisIdentifier;
+import ibis.ipl.MessageUpcall;
+import ibis.ipl.ReadMessage;
+import ibis.ipl.ReceivePort;
+import ibis.ipl.ReceiveTimedOutException;
+import ibis.ipl.SendPort;
+import ibis.ipl.WriteMessage;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import rubiks.sequential.Cube;
+import rubiks.sequential.Solver;
+import rubiks.sequential.Subtree;
+import rubiks.sequential.TranspositionTable;
+
+/**
+ * Worker of the distributed solver, one on every machine. Searches the
+ * subtrees in its deque, taking them from the front. When the deque is empty,
+ * it reports the searched subtrees to the master, and asks a random other
+ * machine for work until it gets some, or the master says the bound is done.
+ * After every request answered with nothing it waits twice as long (up to
+ * {@link #MAX_BACKOFF}) for the master before asking again, so the last busy
+ * machines of a bound are not flooded with requests from all idle ones.
+ *
+ * Requests for work from other machines are answered in upcalls, with half of
+ * the subtrees at the back of the deque.
+ *
+ */
+class Worker implements Runnable, MessageUpcall {
+
+    // shortest and longest wait after a request for work gave nothing, in
+    // milliseconds
+    private static final long MIN_BACKOFF = 1;
+
+    private static final long MAX_BACKOFF = 128;
+
+    private final Ibis ibis;
+
+    private final IbisIdentifier master;
+
+    // options used to create the solver
+    private final boolean pruning;
+
+    private final String heuristicName;
+
+    private final List<String> patternFiles;
+
+    // memory for the transposition table in bytes, or 0 for none
+    private final long tableMemory;
+
+    // created when the first cube arrives
+    private Solver solver = null;
+
+    private final Random random = new Random();
+
+    // wait after the next request for work giving nothing
+    private long backoff = MIN_BACKOFF;
+
+    // subtrees not searched yet, and the bound they belong to. Guarded by this
+    private final Deque<Subtree> jobs = new ArrayDeque<Subtree>();
+
+    private int bound = 0;
+
+    // all other machines
+    private IbisIdentifier[] victims = new IbisIdentifier[0];
+
+    private ReceivePort control;
+
+    private ReceivePort loot;
+
+    private SendPort reports;
+
+    // ports to ask for work, only used by the worker itself
+    private final Map<IbisIdentifier, SendPort> stealPorts = new HashMap<IbisIdentifier, SendPort>();
+
+    // ports to give away work, only used in upcalls
+    private final Map<IbisIdentifier, SendPort> lootPorts = new HashMap<IbisIdentifier, SendPort>();
+
+    /**
+     * Creates a worker.
+     *
+     * @param ibis
+     *            ibis of this machine
+     * @param master
+     *            the master to report to
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristicName
+     *            name of the heuristic to use
+     * @param patternFiles
+     *            pattern databases to use instead, if any
+     * @param tableMemory
+     *            memory for a transposition table in bytes, or 0 for none
+     */
+    Worker(Ibis ibis, IbisIdentifier master, boolean pruning,
+            String heuristicName, List<String> patternFiles,
+            long tableMemory) {
+        this.ibis = ibis;
+        this.master = master;
+        this.pruning = pruning;
+        this.heuristicName = heuristicName;
+        this.patternFiles = patternFiles;
+        this.tableMemory = tableMemory;
+    }
+
+    /**
+     * Searches subtrees, until the master says the search is done.
+     *
+     * @throws Exception
+     *             in case of trouble
+     */
+    void work() throws Exception {
+        control = ibis.createReceivePort(Rubiks.CONTROL_PORT,
+                Rubiks.CONTROL_PORT_NAME);
+        control.enableConnections();
+
+        loot = ibis.createReceivePort(Rubiks.LOOT_PORT, Rubiks.LOOT_PORT_NAME);
+        loot.enableConnections();
+
+        ReceivePort steal = ibis.createReceivePort(Rubiks.STEAL_PORT,
+                Rubiks.STEAL_PORT_NAME, this);
+        steal.enableConnections();
+        steal.enableMessageUpcalls();
+
+        reports = ibis.createSendPort(Rubiks.REPORT_PORT);
+        // the master may not have created its port yet, keep trying
+        reports.connect(master, Rubiks.REPORT_PORT_NAME,
+                Rubiks.CONNECT_TIMEOUT, true);
+        report(Rubiks.HELLO, 0);
+
+        ReadMessage message = control.receive();
+        while (true) {
+            int type = message.readInt();
+
+            if (type == Rubiks.START) {
+                IbisIdentifier[] members = (IbisIdentifier[]) message
+                        .readObject();
+                message.finish();
+
+                List<IbisIdentifier> others = new ArrayList<IbisIdentifier>();
+                for (IbisIdentifier member : members) {
+                    if (!member.equals(ibis.identifier())) {
+                        others.add(member);
+                    }
+                }
+                victims = others.toArray(new IbisIdentifier[others.size()]);
+
+                message = control.receive();
+            } else if (type == Rubiks.BOUND) {
+                Cube cube = (Cube) message.readObject();
+                Subtree[] share = (Subtree[]) message.readObject();
+                message.finish();
+
+                message = search(cube, share);
+            } else if (type == Rubiks.STOP) {
+                message.finish();
+                report(Rubiks.STOPPED, 0);
+
+                message = control.receive();
+            } else {
+                // exit
+                message.finish();
+                break;
+            }
+        }
+
+        for (SendPort port : stealPorts.values()) {
+            port.close();
+        }
+        synchronized (lootPorts) {
+            for (SendPort port : lootPorts.values()) {
+                port.close();
+            }
+        }
+        reports.close();
+
+        steal.close();
+        loot.close();
+        control.close();
+    }
+
+    /**
+     * Searches subtrees of a bound, and subtrees taken from others, until the
+     * master sends the next control message. As the master only does so when
+     * all subtrees of the bound are searched, this worker stays available to
+     * others until then.
+     *
+     * @return the next control message
+     */
+    private ReadMessage search(Cube cube, Subtree[] share) throws Exception {
+        if (solver == null) {
+            TranspositionTable table = null;
+            if (tableMemory > 0) {
+                table = new TranspositionTable(tableMemory);
+            }
+            solver = new Solver(cube.getSize(), pruning,
+                    rubiks.sequential.Rubiks.createHeuristic(heuristicName,
+                            patternFiles, cube), 0, table);
+        }
+
+        synchronized (this) {
+            bound = cube.getBound();
+            jobs.addAll(Arrays.asList(share));
+        }
+        backoff = MIN_BACKOFF;
+
+        int done = 0;
+        int solutions = 0;
+
+        while (true) {
+            Subtree job;
+            synchronized (this) {
+                job = jobs.pollFirst();
+            }
+
+            if (job != null) {
+                job.apply(cube);
+                solutions += solver.solutions(cube, job);
+                job.undo(cube);
+                done++;
+                continue;
+            }
+
+            if (done > 0) {
+                report(done, solutions);
+                done = 0;
+                solutions = 0;
+            }
+
+            if (victims.length == 0) {
+                return control.receive();
+            }
+
+            ReadMessage message = control.poll();
+            if (message != null) {
+                return message;
+            }
+
+            if (steal(cube.getBound())) {
+                backoff = MIN_BACKOFF;
+                continue;
+            }
+
+            message = receive(backoff);
+            if (message != null) {
+                return message;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF);
+        }
+    }
+
+    /**
+     * Waits at most the given time for the next control message.
+     *
+     * @return the message, or null if none arrived in time
+     */
+    private ReadMessage receive(long timeout) throws IOException {
+        try {
+            return control.receive(timeout);
+        } catch (ReceiveTimedOutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Asks a random other machine for subtrees of a bound, and adds what it
+     * gives away to the deque.
+     *
+     * @return true if the other machine gave any subtrees
+     */
+    private boolean steal(int current) throws Exception {
+        IbisIdentifier victim = victims[random.nextInt(victims.length)];
+
+        SendPort port = stealPorts.get(victim);
+        if (port == null) {
+            port = ibis.createSendPort(Rubiks.STEAL_PORT);
+            port.connect(victim, Rubiks.STEAL_PORT_NAME,
+                    Rubiks.CONNECT_TIMEOUT, true);
+            stealPorts.put(victim, port);
+        }
+
+        WriteMessage request = port.newMessage();
+        request.writeInt(current);
+        request.finish();
+
+        ReadMessage reply = loot.receive();
+        Subtree[] stolen = (Subtree[]) reply.readObject();
+        reply.finish();
+
+        synchronized (this) {
+            jobs.addAll(Arrays.asList(stolen));
+        }
+        return stolen.length > 0;
+    }
+
+    /**
+     * Sends the number of subtrees searched, and the number of solutions found
+     * in them, to the master.
+     */
+    private void report(int count, int solutions) throws IOException {
+        WriteMessage message = reports.newMessage();
+        message.writeInt(count);
+        message.writeInt(solutions);
+        message.finish();
+    }
+
+    /**
+     * Answers a request for work of another machine. Gives away half of the
+     * subtrees at the back of the deque, or nothing if the other machine is
+     * searching a different bound.
+     */
+    public void upcall(ReadMessage message) throws IOException,
+            ClassNotFoundException {
+        IbisIdentifier thief = message.origin().ibisIdentifier();
+        int thiefBound = message.readInt();
+        // allow other upcalls while answering
+        message.finish();
+
+        Subtree[] stolen;
+        synchronized (this) {
+            int count = 0;
+            if (thiefBound == bound) {
+                count = (jobs.size() + 1) / 2;
+            }
+
+            stolen = new Subtree[count];
+            for (int i = 0; i < count; i++) {
+                stolen[i] = jobs.pollLast();
+            }
+        }
+
+        SendPort port;
+        synchronized (lootPorts) {
+            port = lootPorts.get(thief);
+            if (port == null) {
+                port = ibis.createSendPort(Rubiks.LOOT_PORT);
+                port.connect(thief, Rubiks.LOOT_PORT_NAME,
+                        Rubiks.CONNECT_TIMEOUT, true);
+                lootPorts.put(thief, port);
+            }
+        }
+
+        // a thief only has one request at a time, so never shares this port
+        WriteMessage reply = port.newMessage();
+        reply.writeObject(stolen);
+        reply.finish();
+    }
+
+    /**
+     * Runs a worker in a thread of its own, next to the master.
+     */
+    public void run() {
+        try {
+            work();
+        } catch (Exception e) {
+            System.err.println("Worker failed: " + e);
+            e.printStackTrace(System.err);
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,465 @@
+package rubiks.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Pattern consisting of the eight corners of a cube: which corner is where,
+ * and how it is turned.
+ *
+ * The corner at the top-left-front is never moved by any twist, so only the
+ * other seven corners are part of the pattern. Their positions are numbered
+ * by rank (7! = 5040 possibilities), their orientations in base 3 (3^6 = 729
+ * possibilities, the orientation of the last corner follows from the others).
+ * The pattern has 3,674,160 states in total.
+ *
+ * The orientation of a corner is the position of its top or bottom color
+ * among the three elements of the corner, counting from the element on the
+ * top or bottom side. As all twists of an axis (except row 0) move the
+ * corners in the same way, there are only six different moves.
+ *
+ */
+public final class CornerSpace implements PatternSpace {
+
+    /**
+     * Kind of this pattern in database files.
+     */
+    public static final int KIND = 1;
+
+    private static final int CORNERS = 8;
+
+    // all corners except the fixed one
+    private static final int MOVABLE = CORNERS - 1;
+
+    private static final int PERMUTATIONS = 5040;
+
+    private static final int ORIENTATIONS = 729;
+
+    private final int size;
+
+    // side and element of the three elements of each corner, the first one
+    // on the top or bottom side
+    private final int[] sides = new int[CORNERS * 3];
+
+    private final int[] elements = new int[CORNERS * 3];
+
+    // corner with a given set of colors (one bit per color), or -1
+    private final int[] corners = new int[1 << Cube.SIDES];
+
+    // new position rank after a move, indexed by [move][rank]
+    private final int[][] permutationMoves;
+
+    // new orientation after a move, indexed by [move][orientation]
+    private final int[][] orientationMoves;
+
+    // move done by each twist of the cube
+    private final int[] twistMoves;
+
+    /**
+     * Creates the corner pattern for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     */
+    public CornerSpace(int size) {
+        this.size = size;
+
+        findCorners();
+
+        // effect of every twist: where each corner goes, and how much it turns
+        List<int[]> effects = new ArrayList<int[]>();
+        Cube cube = new Cube(size);
+        twistMoves = new int[cube.getMoveCount()];
+        for (int move = 0; move < cube.getMoveCount(); move++) {
+            Cube twisted = new Cube(size);
+            twisted.twist(move);
+
+            int[] effect = new int[CORNERS * 2];
+            int turned = 0;
+            for (int slot = 0; slot < CORNERS; slot++) {
+                int corner = cornerAt(twisted, slot);
+                effect[corner] = slot;
+                effect[CORNERS + corner] = orientationAt(twisted, slot);
+                turned += orientationAt(twisted, slot);
+            }
+
+            if (effect[0] != 0 || effect[CORNERS] != 0) {
+                throw new Error("fixed corner moved by twist " + move);
+            }
+            if (turned % 3 != 0) {
+                throw new Error("twist " + move + " turns corners by "
+                        + turned);
+            }
+
+            int known = -1;
+            for (int other = 0; other < effects.size(); other++) {
+                if (Arrays.equals(effect, effects.get(other))) {
+                    known = other;
+                }
+            }
+            if (known < 0) {
+                known = effects.size();
+                effects.add(effect);
+            }
+            twistMoves[move] = known;
+        }
+
+        permutationMoves = new int[effects.size()][PERMUTATIONS];
+        orientationMoves = new int[effects.size()][ORIENTATIONS];
+
+        int[] from = new int[CORNERS];
+        int[] to = new int[CORNERS];
+        for (int move = 0; move < effects.size(); move++) {
+            int[] effect = effects.get(move);
+
+            for (int rank = 0; rank < PERMUTATIONS; rank++) {
+                unrankPermutation(rank, from);
+                for (int slot = 1; slot < CORNERS; slot++) {
+                    to[effect[slot]] = from[slot];
+                }
+                permutationMoves[move][rank] = rankPermutation(to);
+            }
+
+            for (int orientation = 0; orientation < ORIENTATIONS; orientation++) {
+                decodeOrientation(orientation, from);
+                for (int slot = 1; slot < CORNERS; slot++) {
+                    to[effect[slot]] = (from[slot] + effect[CORNERS + slot]) % 3;
+                }
+                orientationMoves[move][orientation] = encodeOrientation(to);
+            }
+        }
+    }
+
+    /**
+     * Finds the three elements of every corner, and the colors of each corner
+     * in a solved cube.
+     */
+    private void findCorners() {
+        int last = size - 1;
+        int[] found = new int[CORNERS];
+        int[] cornerElements = { 0, last, last * size, (last * size) + last };
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            for (int element : cornerElements) {
+                int[] position = Geometry.position(size, side, element);
+                int slot = (position[0] == 0 ? 0 : 4)
+                        + (position[1] == 0 ? 0 : 2)
+                        + (position[2] == 0 ? 0 : 1);
+
+                int index = (slot * 3) + found[slot]++;
+                sides[index] = side;
+                elements[index] = element;
+            }
+        }
+
+        Arrays.fill(corners, -1);
+        for (int slot = 0; slot < CORNERS; slot++) {
+            if (found[slot] != 3) {
+                throw new Error("corner " + slot + " has " + found[slot]
+                        + " elements");
+            }
+
+            // top or bottom element first
+            int first = slot * 3;
+            for (int i = first; i < first + 3; i++) {
+                if (sides[i] == Cube.TOP || sides[i] == Cube.BOTTOM) {
+                    swap(first, i);
+                }
+            }
+            // the others in the same order for all corners
+            if (!Geometry.positive(sides[first], sides[first + 1],
+                    sides[first + 2])) {
+                swap(first + 1, first + 2);
+            }
+
+            int colors = (1 << sides[first]) | (1 << sides[first + 1])
+                    | (1 << sides[first + 2]);
+            corners[colors] = slot;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int side = sides[i];
+        sides[i] = sides[j];
+        sides[j] = side;
+
+        int element = elements[i];
+        elements[i] = elements[j];
+        elements[j] = element;
+    }
+
+    /**
+     * Returns which corner is at the given position, or -1 if the colors found
+     * there do not match any corner.
+     */
+    private int cornerAt(Cube cube, int slot) {
+        int first = slot * 3;
+        int colors = 0;
+        for (int i = first; i < first + 3; i++) {
+            colors |= 1 << cube.getColor(sides[i], elements[i]);
+        }
+        return corners[colors];
+    }
+
+    /**
+     * Returns how the corner at the given position is turned.
+     */
+    private int orientationAt(Cube cube, int slot) {
+        int first = slot * 3;
+        for (int i = 0; i < 2; i++) {
+            int color = cube.getColor(sides[first + i], elements[first + i]);
+            if (color == Cube.TOP || color == Cube.BOTTOM) {
+                return i;
+            }
+        }
+        return 2;
+    }
+
+    /**
+     * Returns the rank of the positions of the movable corners, given as the
+     * corner at each position.
+     */
+    private static int rankPermutation(int[] permutation) {
+        int rank = 0;
+        int used = 0;
+        for (int slot = 1; slot < CORNERS; slot++) {
+            int corner = permutation[slot] - 1;
+            int smaller = Integer.bitCount(~used & ((1 << corner) - 1));
+            rank = (rank * (CORNERS - slot)) + smaller;
+            used |= 1 << corner;
+        }
+        return rank;
+    }
+
+    private static void unrankPermutation(int rank, int[] permutation) {
+        int[] digits = new int[CORNERS];
+        for (int slot = MOVABLE; slot > 0; slot--) {
+            digits[slot] = rank % (CORNERS - slot);
+            rank /= CORNERS - slot;
+        }
+
+        int used = 0;
+        for (int slot = 1; slot < CORNERS; slot++) {
+            // find the unused corner with "digit" unused corners before it
+            int corner = -1;
+            for (int skip = digits[slot]; skip >= 0; skip--) {
+                do {
+                    corner++;
+                } while ((used & (1 << corner)) != 0);
+            }
+            used |= 1 << corner;
+            permutation[slot] = corner + 1;
+        }
+        permutation[0] = 0;
+    }
+
+    private static int encodeOrientation(int[] orientation) {
+        int result = 0;
+        for (int slot = 1; slot < MOVABLE; slot++) {
+            result = (result * 3) + orientation[slot];
+        }
+        return result;
+    }
+
+    private static void decodeOrientation(int encoded, int[] orientation) {
+        int sum = 0;
+        for (int slot = MOVABLE - 1; slot > 0; slot--) {
+            orientation[slot] = encoded % 3;
+            sum += orientation[slot];
+            encoded /= 3;
+        }
+        orientation[0] = 0;
+        orientation[MOVABLE] = (3 - (sum % 3)) % 3;
+    }
+
+    /**
+     * Finds the side every color belongs on in the solved cube, for a cube
+     * without centers: the colors of the fixed corner give its own three
+     * sides, and the color opposite to each of these is the third color of
+     * the corners with the other two.
+     *
+     * @param cube
+     *            a consistent cube
+     * @return the side of each color, or null if the corners do not agree
+     */
+    int[] sidesOfColors(Cube cube) {
+        int[] result = new int[Cube.SIDES];
+        Arrays.fill(result, -1);
+        for (int i = 0; i < 3; i++) {
+            result[cube.getColor(sides[i], elements[i])] = sides[i];
+        }
+
+        for (int i = 0; i < 3; i++) {
+            int own = cube.getColor(sides[i], elements[i]);
+            int others = (1 << cube.getColor(sides[(i + 1) % 3],
+                    elements[(i + 1) % 3]))
+                    | (1 << cube.getColor(sides[(i + 2) % 3],
+                            elements[(i + 2) % 3]));
+
+            for (int slot = 1; slot < CORNERS; slot++) {
+                int colors = 0;
+                for (int j = slot * 3; j < (slot * 3) + 3; j++) {
+                    colors |= 1 << cube.getColor(sides[j], elements[j]);
+                }
+                if ((colors & others) != others
+                        || (colors & (1 << own)) != 0) {
+                    continue;
+                }
+
+                int color = Integer.numberOfTrailingZeros(colors & ~others);
+                int side = Geometry.opposite(sides[i]);
+                if (result[color] >= 0 && result[color] != side) {
+                    return null;
+                }
+                result[color] = side;
+            }
+        }
+
+        int found = 0;
+        for (int color = 0; color < Cube.SIDES; color++) {
+            if (result[color] < 0) {
+                return null;
+            }
+            found |= 1 << result[color];
+        }
+        return found == (1 << Cube.SIDES) - 1 ? result : null;
+    }
+
+    /**
+     * Checks if the corners of a cube can be reached by twisting, with every
+     * color read as the side it belongs on, and returns the parity of their
+     * permutation. All corners must be present with their colors in the
+     * right order around them, and their orientations must add up to a
+     * multiple of three. The fixed corner is not checked, as the sides are
+     * found from it for cubes without centers.
+     *
+     * @param cube
+     *            a consistent cube
+     * @param sideOf
+     *            side each color belongs on
+     * @return 0 if the corners are in an even permutation, 1 if odd
+     * @throws Exception
+     *             if the corners cannot be reached, with the reason
+     */
+    int parity(Cube cube, int[] sideOf) throws Exception {
+        int[] permutation = new int[CORNERS];
+        int[] colors = new int[3];
+        int seen = 0;
+        int turned = 0;
+
+        for (int slot = 0; slot < CORNERS; slot++) {
+            int first = slot * 3;
+            int set = 0;
+            for (int i = 0; i < 3; i++) {
+                colors[i] = sideOf[cube.getColor(sides[first + i],
+                        elements[first + i])];
+                set |= 1 << colors[i];
+            }
+            int corner = corners[set];
+            if (corner < 0 || (seen & (1 << corner)) != 0) {
+                throw new Exception("corner missing");
+            }
+            seen |= 1 << corner;
+
+            // the top or bottom color first, the others after it in order
+            int home = corner * 3;
+            int orientation = 0;
+            while (colors[orientation] != sides[home]) {
+                orientation++;
+            }
+            for (int i = 1; i < 3; i++) {
+                if (colors[(orientation + i) % 3] != sides[home + i]) {
+                    throw new Exception("corner colors mirrored");
+                }
+            }
+
+            permutation[slot] = corner;
+            turned += orientation;
+        }
+
+        if (turned % 3 != 0) {
+            throw new Exception("corner turned");
+        }
+        return Geometry.parity(permutation);
+    }
+
+    @Override
+    public int getKind() {
+        return KIND;
+    }
+
+    @Override
+    public int getCubeSize() {
+        return size;
+    }
+
+    @Override
+    public long size() {
+        return PERMUTATIONS * ORIENTATIONS;
+    }
+
+    @Override
+    public int moves() {
+        return permutationMoves.length;
+    }
+
+    @Override
+    public long move(long index, int move) {
+        int permutation = (int) (index / ORIENTATIONS);
+        int orientation = (int) (index % ORIENTATIONS);
+
+        return ((long) permutationMoves[move][permutation] * ORIENTATIONS)
+                + orientationMoves[move][orientation];
+    }
+
+    @Override
+    public int moveOf(int twist) {
+        return twistMoves[twist];
+    }
+
+    @Override
+    public long index(Cube cube) {
+        // same as rankPermutation() and encodeOrientation(), without arrays
+        int rank = 0;
+        int used = 0;
+        int orientation = 0;
+
+        for (int slot = 1; slot < CORNERS; slot++) {
+            int corner = cornerAt(cube, slot) - 1;
+            int smaller = Integer.bitCount(~used & ((1 << corner) - 1));
+            rank = (rank * (CORNERS - slot)) + smaller;
+            used |= 1 << corner;
+
+            if (slot < MOVABLE) {
+                orientation = (orientation * 3) + orientationAt(cube, slot);
+            }
+        }
+
+        return ((long) rank * ORIENTATIONS) + orientation;
+    }
+
+    @Override
+    public boolean accepts(Cube cube) {
+        if (cube.getSize() != size) {
+            return false;
+        }
+
+        int seen = 0;
+        int turned = 0;
+        for (int slot = 0; slot < CORNERS; slot++) {
+            int corner = cornerAt(cube, slot);
+            if (corner < 0) {
+                return false;
+            }
+            seen |= 1 << corner;
+            turned += orientationAt(cube, slot);
+        }
+
+        return seen == (1 << CORNERS) - 1 && cornerAt(cube, 0) == 0
+                && orientationAt(cube, 0) == 0 && turned % 3 == 0;
+    }
+
+}
@@ -0,0 +1,360 @@
+package rubiks.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Pattern consisting of six of the twelve edges of a standard (3x3x3) cube:
+ * where each of these edges is, and if it is flipped. The other edges are
+ * ignored. Two patterns with disjoint groups of edges together cover all
+ * edges.
+ *
+ * The positions of the six edges are numbered by rank (12 * 11 * 10 * 9 * 8 *
+ * 7 = 665,280 possibilities), their orientations by a bit per edge (64
+ * possibilities). The pattern has 42,577,920 states in total.
+ *
+ * An edge is flipped if its reference color is not on the reference element
+ * of its position. The reference is the top or bottom color or element, or
+ * for edges without one the front or back color or element.
+ *
+ * Ranking and moving states does not create any objects.
+ *
+ */
+public final class EdgeSpace implements PatternSpace {
+
+    /**
+     * Kind in database files of the pattern for the first group of edges. The
+     * second group has kind FIRST_KIND + 1.
+     */
+    public static final int FIRST_KIND = 2;
+
+    /**
+     * Number of groups of edges.
+     */
+    public static final int GROUPS = 2;
+
+    private static final int SIZE = 3;
+
+    private static final int EDGES = 12;
+
+    // edges in a group
+    private static final int TRACKED = 6;
+
+    private static final int PLACEMENTS = 665280;
+
+    private static final int ORIENTATIONS = 1 << TRACKED;
+
+    // value of the digit of each tracked edge in a rank
+    private static final int[] DIVISORS = { 11 * 10 * 9 * 8 * 7,
+            10 * 9 * 8 * 7, 9 * 8 * 7, 8 * 7, 7, 1 };
+
+    // group of edges in this pattern, and the first edge of that group
+    private final int group;
+
+    private final int first;
+
+    // side and element of the two elements of each edge, the reference
+    // element first
+    private final int[] sides = new int[EDGES * 2];
+
+    private final int[] elements = new int[EDGES * 2];
+
+    // edge with a given set of colors (one bit per color), or -1
+    private final int[] edges = new int[1 << Cube.SIDES];
+
+    // new position of an edge, indexed by [move][position]
+    private final int[][] destinations;
+
+    // 1 if a move flips the edge at a position, indexed by [move][position]
+    private final int[][] flips;
+
+    // move done by each twist of the cube
+    private final int[] twistMoves;
+
+    /**
+     * Creates the pattern of a group of edges.
+     *
+     * @param size
+     *            size of the cube, only 3 is supported
+     * @param group
+     *            group of edges, 0 <= group < GROUPS
+     */
+    public EdgeSpace(int size, int group) {
+        if (size != SIZE) {
+            throw new Error("edge patterns only exist for cubes of size "
+                    + SIZE);
+        }
+        if (group < 0 || group >= GROUPS) {
+            throw new Error("unknown group of edges: " + group);
+        }
+        this.group = group;
+        this.first = group * TRACKED;
+
+        findEdges();
+
+        List<int[]> effects = new ArrayList<int[]>();
+        Cube cube = new Cube(SIZE);
+        twistMoves = new int[cube.getMoveCount()];
+        for (int move = 0; move < cube.getMoveCount(); move++) {
+            Cube twisted = new Cube(SIZE);
+            twisted.twist(move);
+
+            int[] effect = new int[EDGES * 2];
+            for (int slot = 0; slot < EDGES; slot++) {
+                int edge = edgeAt(twisted, slot);
+                effect[edge] = slot;
+                effect[EDGES + edge] = orientationAt(twisted, slot);
+            }
+
+            int known = -1;
+            for (int other = 0; other < effects.size(); other++) {
+                if (Arrays.equals(effect, effects.get(other))) {
+                    known = other;
+                }
+            }
+            if (known < 0) {
+                known = effects.size();
+                effects.add(effect);
+            }
+            twistMoves[move] = known;
+        }
+
+        destinations = new int[effects.size()][];
+        flips = new int[effects.size()][];
+        for (int move = 0; move < effects.size(); move++) {
+            int[] effect = effects.get(move);
+            destinations[move] = Arrays.copyOfRange(effect, 0, EDGES);
+            flips[move] = Arrays.copyOfRange(effect, EDGES, EDGES * 2);
+        }
+    }
+
+    /**
+     * Finds the two elements of every edge, and the colors of each edge in a
+     * solved cube. Edges are numbered in order of their position.
+     */
+    private void findEdges() {
+        int[] slots = new int[SIZE * SIZE * SIZE];
+        Arrays.fill(slots, -1);
+        int[] found = new int[EDGES];
+        int count = 0;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            // elements in the middle of a border of the side
+            for (int element = 1; element < SIZE * SIZE; element += 2) {
+                int[] position = Geometry.position(SIZE, side, element);
+                int key = (((position[0] * SIZE) + position[1]) * SIZE)
+                        + position[2];
+                if (slots[key] < 0) {
+                    slots[key] = count++;
+                }
+                int slot = slots[key];
+
+                int index = (slot * 2) + found[slot]++;
+                sides[index] = side;
+                elements[index] = element;
+            }
+        }
+
+        Arrays.fill(edges, -1);
+        for (int slot = 0; slot < EDGES; slot++) {
+            int index = slot * 2;
+            if (isReference(sides[index + 1], sides[index])) {
+                int side = sides[index];
+                sides[index] = sides[index + 1];
+                sides[index + 1] = side;
+
+                int element = elements[index];
+                elements[index] = elements[index + 1];
+                elements[index + 1] = element;
+            }
+
+            edges[(1 << sides[index]) | (1 << sides[index + 1])] = slot;
+        }
+    }
+
+    /**
+     * Returns if the first color (or side) is the reference of an edge with
+     * the given two colors.
+     */
+    private static boolean isReference(int color, int other) {
+        if (color == Cube.TOP || color == Cube.BOTTOM) {
+            return true;
+        }
+        if (other == Cube.TOP || other == Cube.BOTTOM) {
+            return false;
+        }
+        return color == Cube.FRONT || color == Cube.BACK;
+    }
+
+    /**
+     * Returns which edge is at the given position, or -1 if the colors found
+     * there do not match any edge.
+     */
+    private int edgeAt(Cube cube, int slot) {
+        int index = slot * 2;
+        return edges[(1 << cube.getColor(sides[index], elements[index]))
+                | (1 << cube.getColor(sides[index + 1], elements[index + 1]))];
+    }
+
+    /**
+     * Returns 1 if the edge at the given position is flipped, 0 if not.
+     */
+    private int orientationAt(Cube cube, int slot) {
+        int index = slot * 2;
+        int color = cube.getColor(sides[index], elements[index]);
+        int other = cube.getColor(sides[index + 1], elements[index + 1]);
+        return isReference(color, other) ? 0 : 1;
+    }
+
+    /**
+     * Checks if the edges of a cube can be reached by twisting, with every
+     * color read as the side it belongs on, and returns the parity of their
+     * permutation. All edges must be present, and an even number of them
+     * flipped.
+     *
+     * @param cube
+     *            a consistent cube
+     * @param sideOf
+     *            side each color belongs on
+     * @return 0 if the edges are in an even permutation, 1 if odd
+     * @throws Exception
+     *             if the edges cannot be reached, with the reason
+     */
+    int parity(Cube cube, int[] sideOf) throws Exception {
+        int[] permutation = new int[EDGES];
+        int seen = 0;
+        int flipped = 0;
+
+        for (int slot = 0; slot < EDGES; slot++) {
+            int index = slot * 2;
+            int color = sideOf[cube.getColor(sides[index], elements[index])];
+            int other = sideOf[cube.getColor(sides[index + 1],
+                    elements[index + 1])];
+            int edge = edges[(1 << color) | (1 << other)];
+            if (edge < 0 || (seen & (1 << edge)) != 0) {
+                throw new Exception("edge missing");
+            }
+            seen |= 1 << edge;
+
+            permutation[slot] = edge;
+            flipped += isReference(color, other) ? 0 : 1;
+        }
+
+        if (flipped % 2 != 0) {
+            throw new Exception("edge flipped");
+        }
+        return Geometry.parity(permutation);
+    }
+
+    @Override
+    public int getKind() {
+        return FIRST_KIND + group;
+    }
+
+    @Override
+    public int getCubeSize() {
+        return SIZE;
+    }
+
+    @Override
+    public long size() {
+        return (long) PLACEMENTS * ORIENTATIONS;
+    }
+
+    @Override
+    public int moves() {
+        return destinations.length;
+    }
+
+    @Override
+    public long move(long index, int move) {
+        int placement = (int) (index / ORIENTATIONS);
+        int orientation = (int) (index % ORIENTATIONS);
+        int[] destination = destinations[move];
+        int[] flip = flips[move];
+
+        int used = 0;
+        int newUsed = 0;
+        int rank = 0;
+        int newOrientation = 0;
+
+        for (int edge = 0; edge < TRACKED; edge++) {
+            // position of the edge: the digit-th position not used before
+            int digit = (placement / DIVISORS[edge]) % (EDGES - edge);
+            int slot = select(~used, digit);
+            used |= 1 << slot;
+
+            int target = destination[slot];
+            rank = (rank * (EDGES - edge))
+                    + Integer.bitCount(~newUsed & ((1 << target) - 1));
+            newUsed |= 1 << target;
+
+            newOrientation |= (((orientation >>> edge) & 1) ^ flip[slot]) << edge;
+        }
+
+        return ((long) rank * ORIENTATIONS) + newOrientation;
+    }
+
+    /**
+     * Returns the position of the n-th bit set in the given bits.
+     */
+    private static int select(int bits, int n) {
+        for (int i = 0; i < n; i++) {
+            // clear lowest bit set
+            bits &= bits - 1;
+        }
+        return Integer.numberOfTrailingZeros(bits);
+    }
+
+    @Override
+    public int moveOf(int twist) {
+        return twistMoves[twist];
+    }
+
+    @Override
+    public long index(Cube cube) {
+        // position and orientation of each tracked edge, 4 bits per edge
+        long positions = 0;
+        int orientation = 0;
+
+        for (int slot = 0; slot < EDGES; slot++) {
+            int edge = edgeAt(cube, slot) - first;
+            if (edge >= 0 && edge < TRACKED) {
+                positions |= (long) slot << (edge * 4);
+                orientation |= orientationAt(cube, slot) << edge;
+            }
+        }
+
+        int used = 0;
+        int rank = 0;
+        for (int edge = 0; edge < TRACKED; edge++) {
+            int slot = (int) (positions >>> (edge * 4)) & 0xf;
+            rank = (rank * (EDGES - edge))
+                    + Integer.bitCount(~used & ((1 << slot) - 1));
+            used |= 1 << slot;
+        }
+
+        return ((long) rank * ORIENTATIONS) + orientation;
+    }
+
+    @Override
+    public boolean accepts(Cube cube) {
+        if (cube.getSize() != SIZE) {
+            return false;
+        }
+
+        int seen = 0;
+        for (int slot = 0; slot < EDGES; slot++) {
+            int edge = edgeAt(cube, slot);
+            if (edge < 0) {
+                return false;
+            }
+            seen |= 1 << edge;
+        }
+        return seen == (1 << EDGES) - 1;
+    }
+
+}
@@ -0,0 +1,65 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Heuristic based on the number of misplaced elements. For each side, all
+ * elements not having the most common color of that side need to move to
+ * another side before the cube is solved.
+ *
+ * A single twist moves at most 4 * size * (size - 1) elements from one side to
+ * another (twisting all but the first row). Rotating the side at the end of
+ * the twisted rows keeps all elements on that side. So at least misplaced / (4
+ * * size * (size - 1)) twists are needed to solve the cube.
+ *
+ * Works for cubes of any size, but only gives a useful bound close to the end
+ * of the search. Not thread safe, use one instance per thread.
+ *
+ */
+public final class FaceletHeuristic implements Heuristic {
+
+    private final int size;
+
+    // maximum number of elements changing side in a single twist
+    private final int movedPerTwist;
+
+    // number of elements of each color on the current side
+    private final int[] counts = new int[Cube.SIDES];
+
+    /**
+     * Creates a heuristic for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     */
+    public FaceletHeuristic(int size) {
+        this.size = size;
+        this.movedPerTwist = 4 * size * (size - 1);
+    }
+
+    @Override
+    public int estimate(Cube cube) {
+        int area = size * size;
+        int misplaced = 0;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            for (int color = 0; color < Cube.SIDES; color++) {
+                counts[color] = 0;
+            }
+
+            int most = 0;
+            for (int element = 0; element < area; element++) {
+                int count = ++counts[cube.getColor(side, element)];
+                if (count > most) {
+                    most = count;
+                }
+            }
+
+            misplaced += area - most;
+        }
+
+        // round up
+        return (misplaced + movedPerTwist - 1) / movedPerTwist;
+    }
+
+}
@@ -0,0 +1,153 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Positions of the elements of a cube in space. Used to find which elements
+ * belong to the same piece ("cubie") of the cube.
+ *
+ * The cube is placed with the top-left-front corner at the origin, the x axis
+ * running from left to right, the y axis from top to bottom, and the z axis
+ * from front to back. Every piece of a cube of size n has a position (x, y, z)
+ * with 0 <= x, y, z < n. This follows the expanded view printed by
+ * {@link Cube#print(java.io.PrintStream)}.
+ *
+ * Note that the top-left-front corner is never moved by any twist of the
+ * cube, as twists only turn rows 1 up to size - 1.
+ *
+ */
+final class Geometry {
+
+    private Geometry() {
+        // only static functions
+    }
+
+    /**
+     * Returns the position of the piece a given element belongs to.
+     *
+     * @param size
+     *            size of the cube
+     * @param side
+     *            side of the element
+     * @param element
+     *            index of the element within its side (row * size + column)
+     * @return the position of the piece as {x, y, z}
+     */
+    static int[] position(int size, int side, int element) {
+        int row = element / size;
+        int column = element % size;
+        int last = size - 1;
+
+        switch (side) {
+        case Cube.TOP:
+            return new int[] { column, 0, last - row };
+        case Cube.LEFT:
+            return new int[] { 0, row, last - column };
+        case Cube.FRONT:
+            return new int[] { column, row, 0 };
+        case Cube.RIGHT:
+            return new int[] { last, row, column };
+        case Cube.BACK:
+            return new int[] { last - column, row, last };
+        case Cube.BOTTOM:
+            return new int[] { column, last, row };
+        default:
+            throw new Error("unknown side: " + side);
+        }
+    }
+
+    /**
+     * Returns the direction a side of the cube is facing.
+     *
+     * @param side
+     *            the side
+     * @return the outward normal of the side as {x, y, z}
+     */
+    static int[] normal(int side) {
+        switch (side) {
+        case Cube.TOP:
+            return new int[] { 0, -1, 0 };
+        case Cube.LEFT:
+            return new int[] { -1, 0, 0 };
+        case Cube.FRONT:
+            return new int[] { 0, 0, -1 };
+        case Cube.RIGHT:
+            return new int[] { 1, 0, 0 };
+        case Cube.BACK:
+            return new int[] { 0, 0, 1 };
+        case Cube.BOTTOM:
+            return new int[] { 0, 1, 0 };
+        default:
+            throw new Error("unknown side: " + side);
+        }
+    }
+
+    /**
+     * Returns if three sides, in the given order, turn the same way around
+     * the corner they share as LEFT, FRONT and TOP do.
+     *
+     * @return true if the sides are in "positive" order.
+     */
+    static boolean positive(int first, int second, int third) {
+        int[] a = normal(first);
+        int[] b = normal(second);
+        int[] c = normal(third);
+
+        // determinant of the three normals
+        int determinant = a[0] * ((b[1] * c[2]) - (b[2] * c[1]))
+                - a[1] * ((b[0] * c[2]) - (b[2] * c[0]))
+                + a[2] * ((b[0] * c[1]) - (b[1] * c[0]));
+
+        return determinant > 0;
+    }
+
+    /**
+     * Returns the opposite side of the given side.
+     *
+     * @param side
+     *            the side
+     * @return the opposite side
+     */
+    static int opposite(int side) {
+        switch (side) {
+        case Cube.TOP:
+            return Cube.BOTTOM;
+        case Cube.LEFT:
+            return Cube.RIGHT;
+        case Cube.FRONT:
+            return Cube.BACK;
+        case Cube.RIGHT:
+            return Cube.LEFT;
+        case Cube.BACK:
+            return Cube.FRONT;
+        case Cube.BOTTOM:
+            return Cube.TOP;
+        default:
+            throw new Error("unknown side: " + side);
+        }
+    }
+
+    /**
+     * Returns the parity of a permutation of pieces, found by following its
+     * cycles: a cycle of length n takes n - 1 swaps.
+     *
+     * @param permutation
+     *            piece at each position, every piece exactly once
+     * @return 0 if the permutation is even, 1 if it is odd
+     */
+    static int parity(int[] permutation) {
+        int swaps = 0;
+        boolean[] visited = new boolean[permutation.length];
+
+        for (int start = 0; start < permutation.length; start++) {
+            for (int i = permutation[start]; !visited[i]; i = permutation[i]) {
+                visited[i] = true;
+                if (i != start) {
+                    swaps++;
+                }
+            }
+        }
+        return swaps % 2;
+    }
+
+}
@@ -0,0 +1,27 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Estimate of the number of twists still needed to solve a cube. Used by the
+ * search to skip cubes which cannot be solved within the current bound.
+ *
+ * Estimates must be admissible: never more than the actual number of twists
+ * needed. Otherwise solutions are missed, and the number of solutions found is
+ * wrong.
+ *
+ */
+public interface Heuristic {
+
+    /**
+     * Returns a lower bound for the number of twists needed to solve the given
+     * cube.
+     *
+     * @param cube
+     *            the cube
+     * @return the minimum number of twists needed to solve the cube, 0 if the
+     *         cube is solved.
+     */
+    int estimate(Cube cube);
+
+}
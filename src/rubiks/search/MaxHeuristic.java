@@ -0,0 +1,38 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Heuristic combining several other heuristics by taking the largest
+ * estimate. As each of them is a lower bound, so is the largest. Thread safe
+ * if all combined heuristics are.
+ *
+ */
+public final class MaxHeuristic implements Heuristic {
+
+    private final Heuristic[] heuristics;
+
+    /**
+     * Creates a heuristic combining the given heuristics. They are consulted
+     * in the given order, so the one cutting off most often should be first.
+     *
+     * @param heuristics
+     *            the heuristics to combine
+     */
+    public MaxHeuristic(Heuristic... heuristics) {
+        this.heuristics = heuristics.clone();
+    }
+
+    @Override
+    public int estimate(Cube cube) {
+        int result = 0;
+        for (Heuristic heuristic : heuristics) {
+            int estimate = heuristic.estimate(cube);
+            if (estimate > result) {
+                result = estimate;
+            }
+        }
+        return result;
+    }
+
+}
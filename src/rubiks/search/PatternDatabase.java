@@ -0,0 +1,279 @@
+package rubiks.search;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Table with the number of twists needed to solve every state of a
+ * {@link PatternSpace}, stored in a file. Distances are stored in 4 bits each,
+ * two per byte (the lowest 4 bits for the even state).
+ *
+ * The file is mapped into memory instead of read, so all processes on a
+ * machine using the same file share a single copy in the page cache, and
+ * only the parts actually used are loaded. The checksum is therefore not
+ * checked when a file is loaded, which would read all of it, but by
+ * {@link #verify()}: after generating a file, or when asked for with
+ * "PatternGenerator --check".
+ *
+ * A file starts with a header of {@link #HEADER_SIZE} bytes (big endian):
+ *
+ * <pre>
+ *  0 magic           "RUBIKPDB"
+ *  8 version         int
+ * 12 kind            int, see PatternSpace.getKind()
+ * 16 cube size       int
+ * 20 twist model     int, see TWIST_MODEL
+ * 24 entries         long
+ * 32 depth           int, largest distance in the table
+ * 36 complete        int, 0 while still being generated
+ * 40 checksum        long, CRC-32 of the table
+ * </pre>
+ *
+ */
+public final class PatternDatabase {
+
+    static final long MAGIC = 0x525542494b504442L; // "RUBIKPDB"
+
+    static final int VERSION = 2;
+
+    /**
+     * Twists the database was generated with: twists of rows 1 up to size - 1
+     * on the X, Y and Z axis, as done by {@link rubiks.sequential.Cube}.
+     */
+    public static final int TWIST_MODEL = 1;
+
+    static final int HEADER_SIZE = 64;
+
+    /**
+     * Distance of a state not found (yet).
+     */
+    public static final int UNKNOWN = 15;
+
+    private final int kind;
+
+    private final int cubeSize;
+
+    private final long entries;
+
+    private final int depth;
+
+    // CRC-32 of the table stored in the header
+    private final long checksum;
+
+    // distances, starting after the header
+    private final ByteBuffer table;
+
+    private PatternDatabase(int kind, int cubeSize, long entries, int depth,
+            long checksum, ByteBuffer table) {
+        this.kind = kind;
+        this.cubeSize = cubeSize;
+        this.entries = entries;
+        this.depth = depth;
+        this.checksum = checksum;
+        this.table = table;
+    }
+
+    /**
+     * Maps a pattern database file into memory. Only the header is read, see
+     * {@link #verify()} to check the table.
+     *
+     * @param fileName
+     *            name of the file
+     * @return the database
+     * @throws Exception
+     *             if the file cannot be read, or is not a complete pattern
+     *             database for this twist model
+     */
+    public static PatternDatabase load(String fileName) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new Exception(fileName + " is not a pattern database");
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    0, channel.size());
+
+            if (buffer.getLong(0) != MAGIC) {
+                throw new Exception(fileName + " is not a pattern database");
+            }
+            if (buffer.getInt(8) != VERSION) {
+                throw new Exception(fileName + " has unsupported version "
+                        + buffer.getInt(8));
+            }
+            if (buffer.getInt(20) != TWIST_MODEL) {
+                throw new Exception(fileName + " was made for twist model "
+                        + buffer.getInt(20));
+            }
+            if (buffer.getInt(36) == 0) {
+                throw new Exception(fileName + " is not complete");
+            }
+
+            long entries = buffer.getLong(24);
+            if (channel.size() != HEADER_SIZE + tableSize(entries)) {
+                throw new Exception(fileName + " has wrong size");
+            }
+
+            buffer.position(HEADER_SIZE);
+            ByteBuffer table = buffer.slice();
+
+            return new PatternDatabase(buffer.getInt(12), buffer.getInt(16),
+                    entries, buffer.getInt(32), buffer.getLong(40), table);
+        } finally {
+            // the mapping stays valid after closing the file
+            file.close();
+        }
+    }
+
+    /**
+     * Checks the table against the checksum in the header. Reads the whole
+     * table, so it is not done by {@link #load(String)}.
+     *
+     * @throws Exception
+     *             if the checksum does not match
+     */
+    public void verify() throws Exception {
+        if (checksum(table) != checksum) {
+            throw new Exception("pattern database is corrupt: wrong checksum");
+        }
+    }
+
+    /**
+     * Returns the number of bytes needed for a table with the given number of
+     * entries.
+     */
+    static long tableSize(long entries) {
+        return (entries + 1) / 2;
+    }
+
+    /**
+     * Returns the checksum of a table, as stored in the header.
+     */
+    static long checksum(ByteBuffer table) {
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[1 << 16];
+        ByteBuffer data = table.duplicate();
+        data.clear();
+
+        while (data.hasRemaining()) {
+            int length = Math.min(block.length, data.remaining());
+            data.get(block, 0, length);
+            crc.update(block, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Writes a header into a buffer.
+     */
+    static void writeHeader(ByteBuffer header, PatternSpace space, int depth,
+            boolean complete, long checksum) {
+        header.putLong(0, MAGIC);
+        header.putInt(8, VERSION);
+        header.putInt(12, space.getKind());
+        header.putInt(16, space.getCubeSize());
+        header.putInt(20, TWIST_MODEL);
+        header.putLong(24, space.size());
+        header.putInt(32, depth);
+        header.putInt(36, complete ? 1 : 0);
+        header.putLong(40, checksum);
+    }
+
+    /**
+     * Checks if a header describes a table for the given pattern, and returns
+     * its depth.
+     *
+     * @throws IOException
+     *             if the header does not match the pattern
+     */
+    static int readHeader(ByteBuffer header, PatternSpace space)
+            throws IOException {
+        if (header.getLong(0) != MAGIC || header.getInt(8) != VERSION
+                || header.getInt(12) != space.getKind()
+                || header.getInt(16) != space.getCubeSize()
+                || header.getInt(20) != TWIST_MODEL
+                || header.getLong(24) != space.size()) {
+            throw new IOException("header does not match pattern");
+        }
+        return header.getInt(32);
+    }
+
+    /**
+     * Creates the pattern this database was generated for.
+     *
+     * @return the pattern of this database
+     * @throws Exception
+     *             if the kind of pattern is not known
+     */
+    public PatternSpace createSpace() throws Exception {
+        PatternSpace result;
+
+        switch (kind) {
+        case CornerSpace.KIND:
+            result = new CornerSpace(cubeSize);
+            break;
+        case EdgeSpace.FIRST_KIND:
+        case EdgeSpace.FIRST_KIND + 1:
+            if (cubeSize != 3) {
+                throw new Exception("edge patterns need cubes of size 3");
+            }
+            result = new EdgeSpace(cubeSize, kind - EdgeSpace.FIRST_KIND);
+            break;
+        default:
+            throw new Exception("unknown kind of pattern: " + kind);
+        }
+
+        if (result.size() != entries) {
+            throw new Exception("pattern has " + result.size()
+                    + " states, database has " + entries);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the kind of pattern in this database.
+     *
+     * @return the kind of pattern, see {@link PatternSpace#getKind()}
+     */
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the size of the cube this database was generated for.
+     *
+     * @return the size of the cube
+     */
+    public int getCubeSize() {
+        return cubeSize;
+    }
+
+    /**
+     * Returns the largest number of twists needed for any state.
+     *
+     * @return the depth of the table
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of twists needed to solve a state of the pattern.
+     *
+     * @param index
+     *            the state
+     * @return the number of twists needed
+     */
+    public int get(long index) {
+        int value = table.get((int) (index >>> 1));
+        if ((index & 1) == 0) {
+            return value & 0x0f;
+        }
+        return (value >>> 4) & 0x0f;
+    }
+
+}
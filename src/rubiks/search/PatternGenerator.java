@@ -0,0 +1,422 @@
+package rubiks.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Generates a {@link PatternDatabase} by a breadth-first search of all states
+ * of a {@link PatternSpace}, starting at the solved state.
+ *
+ * The search is done one depth at a time. For each depth all states found at
+ * that depth are expanded by several threads in parallel, each taking blocks
+ * of states until none are left. Distances are kept in 4 bits each, eight per
+ * int, and set with compare-and-set so threads never overwrite each other.
+ *
+ * After every depth the table found so far is written to a checkpoint file
+ * (the output file with ".partial" appended). If generating is stopped, it
+ * continues from the last checkpoint when started again with the same
+ * arguments.
+ *
+ */
+public final class PatternGenerator {
+
+    // number of states expanded by a thread at a time
+    private static final int BLOCK = 1 << 16;
+
+    private final PatternSpace space;
+
+    private final int threads;
+
+    // distances, 8 states per int, the first state in the lowest bits
+    private final AtomicIntegerArray table;
+
+    // next state to expand in the current depth
+    private final AtomicLong next = new AtomicLong();
+
+    // number of states found in the current depth
+    private final AtomicLong found = new AtomicLong();
+
+    // all states up to and including this depth have been found
+    private int depth;
+
+    /**
+     * Creates a generator for a pattern.
+     *
+     * @param space
+     *            the pattern
+     * @param threads
+     *            number of threads to use
+     */
+    public PatternGenerator(PatternSpace space, int threads) {
+        this.space = space;
+        this.threads = threads;
+
+        long words = (space.size() + 7) / 8;
+        if (words > Integer.MAX_VALUE) {
+            throw new Error("pattern too large: " + space.size());
+        }
+        table = new AtomicIntegerArray((int) words);
+    }
+
+    /**
+     * Generates the database, and writes it to a file.
+     *
+     * @param output
+     *            file to write the database to
+     * @throws IOException
+     *             if the database or a checkpoint cannot be written
+     */
+    public void generate(File output) throws IOException {
+        File checkpoint = new File(output.getPath() + ".partial");
+
+        if (checkpoint.exists()) {
+            read(checkpoint);
+            System.err.println("Continuing from depth " + depth + " in "
+                    + checkpoint);
+        } else {
+            for (int i = 0; i < table.length(); i++) {
+                table.set(i, -1);
+            }
+            // solved state of the cube
+            set(space.index(new Cube(space.getCubeSize())), 0);
+            depth = 0;
+        }
+
+        while (true) {
+            long start = System.currentTimeMillis();
+            long states = expand();
+            if (states == 0) {
+                break;
+            }
+            depth++;
+
+            write(checkpoint, false);
+            System.err.println("Depth " + depth + ": " + states
+                    + " states, took "
+                    + (System.currentTimeMillis() - start) + " milliseconds");
+        }
+
+        write(checkpoint, true);
+        if (output.exists() && !output.delete()) {
+            throw new IOException("cannot replace " + output);
+        }
+        if (!checkpoint.renameTo(output)) {
+            throw new IOException("cannot rename " + checkpoint + " to "
+                    + output);
+        }
+    }
+
+    /**
+     * Finds all states at depth + 1, using all threads.
+     *
+     * @return the number of states found
+     */
+    private long expand() {
+        next.set(0);
+        found.set(0);
+
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread("pattern generator " + i) {
+                public void run() {
+                    expandBlocks();
+                }
+            };
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while generating", e);
+            }
+        }
+
+        if (found.get() > 0 && depth + 1 >= PatternDatabase.UNKNOWN) {
+            throw new Error("pattern too deep for table: " + (depth + 1));
+        }
+        return found.get();
+    }
+
+    /**
+     * Expands blocks of states until all states are done. Run by every
+     * thread.
+     */
+    private void expandBlocks() {
+        long size = space.size();
+        int moves = space.moves();
+        long count = 0;
+
+        // only check for new states if the distance does not fit
+        int distance = depth + 1;
+        boolean full = distance >= PatternDatabase.UNKNOWN;
+
+        while (true) {
+            long first = next.getAndAdd(BLOCK);
+            if (first >= size) {
+                break;
+            }
+            long last = Math.min(first + BLOCK, size);
+
+            for (long index = first; index < last; index++) {
+                if (get(index) != depth) {
+                    continue;
+                }
+                for (int move = 0; move < moves; move++) {
+                    long neighbour = space.move(index, move);
+                    if (full ? get(neighbour) == PatternDatabase.UNKNOWN
+                            : discover(neighbour, distance)) {
+                        count++;
+                    }
+                }
+            }
+        }
+
+        found.addAndGet(count);
+    }
+
+    private int get(long index) {
+        int word = table.get((int) (index >>> 3));
+        return (word >>> ((int) (index & 7) * 4)) & 0x0f;
+    }
+
+    private void set(long index, int distance) {
+        if (!discover(index, distance)) {
+            throw new Error("state " + index + " already set");
+        }
+    }
+
+    /**
+     * Sets the distance of a state, if it is not known yet.
+     *
+     * @return true if the distance was set, false if already known
+     */
+    private boolean discover(long index, int distance) {
+        int word = (int) (index >>> 3);
+        int shift = (int) (index & 7) * 4;
+
+        while (true) {
+            int old = table.get(word);
+            if (((old >>> shift) & 0x0f) != PatternDatabase.UNKNOWN) {
+                return false;
+            }
+            int updated = (old & ~(0x0f << shift)) | (distance << shift);
+            if (table.compareAndSet(word, old, updated)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Writes the table to a file, in the format used by
+     * {@link PatternDatabase}.
+     */
+    private void write(File file, boolean complete) throws IOException {
+        // write to a new file first, so a crash never leaves a broken file
+        File temporary = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(temporary, "rw");
+        try {
+            out.setLength(0);
+            FileChannel channel = out.getChannel();
+            CRC32 crc = new CRC32();
+
+            long bytes = PatternDatabase.tableSize(space.size());
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK);
+            channel.position(PatternDatabase.HEADER_SIZE);
+            for (long i = 0; i < bytes; i++) {
+                int word = table.get((int) (i >>> 2));
+                buffer.put((byte) (word >>> ((int) (i & 3) * 8)));
+                if (!buffer.hasRemaining() || i == bytes - 1) {
+                    crc.update(buffer.array(), 0, buffer.position());
+                    buffer.flip();
+                    channel.write(buffer);
+                    buffer.clear();
+                }
+            }
+
+            // header last, as it contains the checksum
+            ByteBuffer header = ByteBuffer.allocate(PatternDatabase.HEADER_SIZE);
+            PatternDatabase.writeHeader(header, space, depth, complete,
+                    crc.getValue());
+            channel.write(header, 0);
+            channel.force(true);
+        } finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("cannot replace " + file);
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("cannot rename " + temporary + " to " + file);
+        }
+    }
+
+    /**
+     * Reads a checkpoint written by {@link #write(File, boolean)}.
+     */
+    private void read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = in.getChannel();
+            long bytes = PatternDatabase.tableSize(space.size());
+            if (channel.size() != PatternDatabase.HEADER_SIZE + bytes) {
+                throw new IOException(file + " has wrong size");
+            }
+
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            depth = PatternDatabase.readHeader(buffer, space);
+
+            for (int i = 0; i < table.length(); i++) {
+                int word = 0;
+                for (int j = 0; j < 4; j++) {
+                    long position = (i * 4L) + j;
+                    int value = 0xff;
+                    if (position < bytes) {
+                        value = buffer.get(
+                                (int) (PatternDatabase.HEADER_SIZE + position)) & 0xff;
+                    }
+                    word |= value << (j * 8);
+                }
+                table.set(i, word);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Creates the pattern with the given name.
+     *
+     * @param name
+     *            name of the pattern
+     * @param size
+     *            size of the cube
+     * @return the pattern
+     * @throws Exception
+     *             if the name is not known
+     */
+    private static PatternSpace createSpace(String name, int size)
+            throws Exception {
+        if (name.equalsIgnoreCase("corners")) {
+            return new CornerSpace(size);
+        }
+        for (int group = 0; group < EdgeSpace.GROUPS; group++) {
+            if (name.equalsIgnoreCase("edges" + (group + 1))) {
+                if (size != 3) {
+                    throw new Exception("edge patterns need cubes of size 3");
+                }
+                return new EdgeSpace(size, group);
+            }
+        }
+        throw new Exception("unknown pattern: " + name);
+    }
+
+    public static void printUsage() {
+        System.out.println("Pattern database generator");
+        System.out.println("");
+        System.out
+                .println("Finds the number of twists needed to solve every state of a part of the cube,");
+        System.out.println(" and writes them to a file.");
+        System.out.println("");
+        System.out.println("USAGE: PatternGenerator [OPTIONS]");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out
+                .println("--pattern NAME\t\tPart of the cube: corners, edges1 or edges2 (default: corners)");
+        System.out.println("--size SIZE\t\tSize of cube (default: 3)");
+        System.out
+                .println("--threads THREADS\t\tNumber of threads to use (default: number of processors)");
+        System.out
+                .println("--output FILE_NAME\t\tFile to write (default: NAME-SIZE.pdb)");
+        System.out
+                .println("--check FILE_NAME\t\tCheck the checksum of an existing file instead of generating one");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        String name = "corners";
+        int size = 3;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String fileName = null;
+        String checkName = null;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--pattern")) {
+                i++;
+                name = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--size")) {
+                i++;
+                size = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--output")) {
+                i++;
+                fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--check")) {
+                i++;
+                checkName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (checkName != null) {
+            try {
+                PatternDatabase.load(checkName).verify();
+                System.out.println(checkName + " is correct");
+            } catch (Exception e) {
+                System.err.println("Cannot check pattern database "
+                        + checkName + ": " + e);
+                System.exit(1);
+            }
+            return;
+        }
+
+        if (fileName == null) {
+            fileName = name.toLowerCase() + "-" + size + ".pdb";
+        }
+
+        try {
+            PatternSpace space = createSpace(name, size);
+
+            long start = System.currentTimeMillis();
+            new PatternGenerator(space, threads).generate(new File(fileName));
+            // read back what actually ended up on disk
+            PatternDatabase.load(fileName).verify();
+            long end = System.currentTimeMillis();
+
+            System.out.println("Wrote " + space.size() + " states to "
+                    + fileName);
+            System.err.println("Generating took " + (end - start)
+                    + " milliseconds");
+        } catch (Exception e) {
+            System.err.println("Cannot generate pattern database: " + e);
+            System.exit(1);
+        }
+    }
+
+}
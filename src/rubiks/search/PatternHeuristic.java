@@ -0,0 +1,45 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Heuristic looking up the number of twists needed to solve a pattern of the
+ * cube in a {@link PatternDatabase}. Thread safe.
+ *
+ */
+public final class PatternHeuristic implements Heuristic {
+
+    private final PatternDatabase database;
+
+    private final PatternSpace space;
+
+    /**
+     * Creates a heuristic using a pattern database.
+     *
+     * @param database
+     *            the database
+     * @throws Exception
+     *             if the pattern of the database is not known
+     */
+    public PatternHeuristic(PatternDatabase database) throws Exception {
+        this.database = database;
+        this.space = database.createSpace();
+    }
+
+    /**
+     * Returns if this heuristic can be used for the given cube.
+     *
+     * @param cube
+     *            the cube
+     * @return true if the pattern can be found in the cube
+     */
+    public boolean accepts(Cube cube) {
+        return space.accepts(cube);
+    }
+
+    @Override
+    public int estimate(Cube cube) {
+        return database.get(space.index(cube));
+    }
+
+}
@@ -0,0 +1,89 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Abstraction of a cube to a smaller problem ("pattern"), for instance only
+ * the positions of the corners. Every state of the pattern is numbered, from 0
+ * up to {@link #size()}. A {@link PatternDatabase} stores the number of twists
+ * needed to solve each of these states.
+ *
+ * Every twist of the cube must correspond to one of the moves of the pattern,
+ * so solving the pattern never takes more twists than solving the cube. This
+ * makes the distances in a pattern database admissible estimates.
+ *
+ * Implementations must be thread safe.
+ *
+ */
+public interface PatternSpace {
+
+    /**
+     * Returns a number identifying this kind of pattern in database files.
+     *
+     * @return the kind of pattern
+     */
+    int getKind();
+
+    /**
+     * Returns the size of the cubes this pattern is defined for.
+     *
+     * @return the size of the cube
+     */
+    int getCubeSize();
+
+    /**
+     * Returns the number of states of this pattern.
+     *
+     * @return the number of states
+     */
+    long size();
+
+    /**
+     * Returns the number of different moves of the pattern. Twists of the cube
+     * having the same effect on the pattern are a single move.
+     *
+     * @return the number of moves
+     */
+    int moves();
+
+    /**
+     * Returns the state reached by doing a move.
+     *
+     * @param index
+     *            the current state
+     * @param move
+     *            the move, 0 <= move < moves()
+     * @return the new state
+     */
+    long move(long index, int move);
+
+    /**
+     * Returns the move of the pattern done by a twist of the cube.
+     *
+     * @param twist
+     *            number of the twist, see {@link Cube#getMoveCount()}
+     * @return the move, 0 <= move < moves()
+     */
+    int moveOf(int twist);
+
+    /**
+     * Returns the state of the pattern of a cube.
+     *
+     * @param cube
+     *            the cube, which must be accepted by {@link #accepts(Cube)}
+     * @return the state of the pattern in the cube
+     */
+    long index(Cube cube);
+
+    /**
+     * Returns if the pattern of the given cube can be found. This is only the
+     * case for cubes of the right size, with the same colors as a cube created
+     * by this program.
+     *
+     * @param cube
+     *            the cube
+     * @return true if {@link #index(Cube)} can be used for the cube
+     */
+    boolean accepts(Cube cube);
+
+}
@@ -0,0 +1,119 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Checks if a cube of size 2 or 3 can be solved at all, without searching
+ * it. A cube with every color present the right number of times can still be
+ * impossible to solve, for instance with a single corner turned, and a search
+ * for a solution of such a cube never ends.
+ *
+ * First the side every color belongs on is found. For a standard cube these
+ * are the sides the centers are on. Twists move the centers, but only as a
+ * turn of the whole cube would, which does not change if a cube can be
+ * solved. A cube of size 2 has no centers, but the corner at the
+ * top-left-front is never moved by any twist, so its colors are on their own
+ * sides already.
+ *
+ * Reading every color as its side, the pieces must be those of a solved
+ * cube: every corner with its colors in the right order, the orientations of
+ * the corners adding up to a multiple of three, an even number of edges
+ * flipped, and for a standard cube the corners and edges both in an even or
+ * both in an odd permutation. Any cube passing these checks can be solved.
+ *
+ * A checker keeps no state while checking, so it can be shared by any number
+ * of threads.
+ *
+ */
+public final class Reachability {
+
+    private final int size;
+
+    private final CornerSpace corners;
+
+    // null for cubes of size 2
+    private final EdgeSpace edges;
+
+    /**
+     * Creates a checker for cubes of a given size.
+     *
+     * @param size
+     *            size of the cubes, 2 or 3
+     */
+    public Reachability(int size) {
+        if (!isSupported(size)) {
+            throw new Error("cannot check cubes of size " + size);
+        }
+        this.size = size;
+
+        corners = new CornerSpace(size);
+        if (size == 3) {
+            edges = new EdgeSpace(size, 0);
+        } else {
+            edges = null;
+        }
+    }
+
+    /**
+     * Returns if cubes of a given size can be checked.
+     *
+     * @param size
+     *            size of the cubes
+     * @return true for cubes of size 2 or 3
+     */
+    public static boolean isSupported(int size) {
+        return size == 2 || size == 3;
+    }
+
+    /**
+     * Checks if a cube can be solved.
+     *
+     * @param cube
+     *            a consistent cube of the size of this checker
+     * @throws Exception
+     *             if the cube cannot be solved, with the reason
+     */
+    public void check(Cube cube) throws Exception {
+        if (cube.getSize() != size) {
+            throw new Error("cannot check a cube of size " + cube.getSize()
+                    + " with a checker for size " + size);
+        }
+
+        int[] sideOf;
+        if (edges == null) {
+            sideOf = corners.sidesOfColors(cube);
+        } else {
+            sideOf = centers(cube);
+        }
+
+        try {
+            if (sideOf == null) {
+                throw new Exception("colors of pieces do not match");
+            }
+
+            int parity = corners.parity(cube, sideOf);
+            if (edges != null && edges.parity(cube, sideOf) != parity) {
+                throw new Exception("two pieces swapped");
+            }
+        } catch (Exception e) {
+            throw new Exception("cube cannot be solved: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the side every color belongs on, found from the centers, or
+     * null if two centers have the same color.
+     */
+    private int[] centers(Cube cube) {
+        int[] result = new int[Cube.SIDES];
+        int found = 0;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            int color = cube.getColor(side, (size * size) / 2);
+            result[color] = side;
+            found |= 1 << color;
+        }
+        return found == (1 << Cube.SIDES) - 1 ? result : null;
+    }
+
+}
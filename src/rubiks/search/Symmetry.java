@@ -0,0 +1,269 @@
+package rubiks.search;
+
+import rubiks.sequential.Cube;
+
+/**
+ * Symmetries of a cube which map twists onto twists. Of the 48 symmetries of
+ * a cube in space only the 6 keeping the top-left-front corner in place
+ * qualify, as that corner is never moved by a twist: the rotations around the
+ * diagonal through this corner, and the mirrors through planes containing it.
+ * Each of these swaps the axes of the cube around (see {@link Geometry}).
+ *
+ * The conjugate of a cube by a symmetry is the cube turned by it in space,
+ * with its colors renamed so a solved cube stays the same. Twisting a cube and
+ * then turning it is the same as turning the cube and doing the matching
+ * twist, and a cube is solved if and only if its conjugate is. A cube
+ * therefore has as many solutions as its conjugates, with the matching
+ * twists.
+ *
+ * The facelets, colors and twists each symmetry maps to are computed once, so
+ * comparing conjugates takes only a few lookups per element, and usually
+ * stops at the first elements.
+ *
+ */
+public final class Symmetry {
+
+    /**
+     * Number of symmetries. Symmetry 0 is the identity.
+     */
+    public static final int COUNT = 6;
+
+    // new position of each coordinate for every symmetry: coordinate i of a
+    // turned position is coordinate AXES[symmetry][i] of the original
+    private static final int[][] AXES = { { 0, 1, 2 }, { 1, 2, 0 },
+            { 2, 0, 1 }, { 1, 0, 2 }, { 0, 2, 1 }, { 2, 1, 0 } };
+
+    private final int size;
+
+    // side and element each element of a conjugate is taken from, indexed by
+    // [symmetry][side * size * size + element]
+    private final int[][] sourceSides;
+
+    private final int[][] sourceElements;
+
+    // new name of every color, indexed by [symmetry][color]
+    private final byte[][] colors;
+
+    // matching twist of every twist, indexed by [symmetry][twist]
+    private final int[][] moves;
+
+    /**
+     * Creates the symmetries of cubes of a given size.
+     *
+     * @param size
+     *            size of the cubes
+     */
+    public Symmetry(int size) {
+        this.size = size;
+
+        int elements = size * size;
+        sourceSides = new int[COUNT][Cube.SIDES * elements];
+        sourceElements = new int[COUNT][Cube.SIDES * elements];
+        colors = new byte[COUNT][Cube.SIDES];
+
+        for (int symmetry = 0; symmetry < COUNT; symmetry++) {
+            for (int side = 0; side < Cube.SIDES; side++) {
+                int newSide = side(turn(symmetry, Geometry.normal(side)));
+                colors[symmetry][side] = (byte) newSide;
+
+                for (int element = 0; element < elements; element++) {
+                    int newElement = element(newSide, turn(symmetry,
+                            Geometry.position(size, side, element)));
+                    int target = (newSide * elements) + newElement;
+                    sourceSides[symmetry][target] = side;
+                    sourceElements[symmetry][target] = element;
+                }
+            }
+        }
+
+        moves = new int[COUNT][new Cube(size).getMoveCount()];
+        findMoves();
+    }
+
+    /**
+     * Turns a position or direction in space by a symmetry.
+     */
+    private static int[] turn(int symmetry, int[] vector) {
+        int[] axes = AXES[symmetry];
+        return new int[] { vector[axes[0]], vector[axes[1]], vector[axes[2]] };
+    }
+
+    /**
+     * Returns the side facing a direction.
+     */
+    private static int side(int[] normal) {
+        for (int side = 0; side < Cube.SIDES; side++) {
+            int[] other = Geometry.normal(side);
+            if (other[0] == normal[0] && other[1] == normal[1]
+                    && other[2] == normal[2]) {
+                return side;
+            }
+        }
+        throw new Error("no side facing " + normal[0] + "," + normal[1] + ","
+                + normal[2]);
+    }
+
+    /**
+     * Returns the element of a side at a position.
+     */
+    private int element(int side, int[] position) {
+        for (int element = 0; element < size * size; element++) {
+            int[] other = Geometry.position(size, side, element);
+            if (other[0] == position[0] && other[1] == position[1]
+                    && other[2] == position[2]) {
+                return element;
+            }
+        }
+        throw new Error("no element of side " + side + " at " + position[0]
+                + "," + position[1] + "," + position[2]);
+    }
+
+    /**
+     * Fills in the matching twists. Each twist is recognized by the way it
+     * turns a solved cube: an element of a different color has been turned
+     * from the side of that color, around the axis of the twist, and the
+     * turned rows start at the lowest row such an element is in.
+     */
+    private void findMoves() {
+        int count = moves[0].length;
+        // sides some element is turned from and to, and the first row
+        // turned, for each twist
+        int[][] froms = new int[count][];
+        int[][] tos = new int[count][];
+        int[] rows = new int[count];
+
+        for (int move = 0; move < count; move++) {
+            Cube cube = new Cube(size);
+            cube.twist(move);
+
+            rows[move] = size;
+            for (int side = 0; side < Cube.SIDES; side++) {
+                for (int element = 0; element < size * size; element++) {
+                    int from = cube.getColor(side, element);
+                    if (from == side) {
+                        continue;
+                    }
+                    if (froms[move] == null) {
+                        froms[move] = Geometry.normal(from);
+                        tos[move] = Geometry.normal(side);
+                    }
+                    int[] position = Geometry.position(size, side, element);
+                    int[] axis = cross(froms[move], tos[move]);
+                    rows[move] = Math.min(rows[move], Math.abs(dot(axis,
+                            position)));
+                }
+            }
+        }
+
+        for (int symmetry = 0; symmetry < COUNT; symmetry++) {
+            for (int move = 0; move < count; move++) {
+                // the matching twist turns the turned sides into each other
+                int[] axis = cross(turn(symmetry, froms[move]), turn(symmetry,
+                        tos[move]));
+
+                moves[symmetry][move] = -1;
+                for (int other = 0; other < count; other++) {
+                    if (rows[other] == rows[move]
+                            && equal(cross(froms[other], tos[other]), axis)) {
+                        moves[symmetry][move] = other;
+                    }
+                }
+                if (moves[symmetry][move] == -1) {
+                    throw new Error("no matching twist for twist " + move
+                            + " in symmetry " + symmetry);
+                }
+            }
+        }
+    }
+
+    private static int dot(int[] a, int[] b) {
+        return (a[0] * b[0]) + (a[1] * b[1]) + (a[2] * b[2]);
+    }
+
+    private static int[] cross(int[] a, int[] b) {
+        return new int[] { (a[1] * b[2]) - (a[2] * b[1]),
+                (a[2] * b[0]) - (a[0] * b[2]), (a[0] * b[1]) - (a[1] * b[0]) };
+    }
+
+    private static boolean equal(int[] a, int[] b) {
+        return a[0] == b[0] && a[1] == b[1] && a[2] == b[2];
+    }
+
+    /**
+     * Returns the color of an element of the conjugate of a cube.
+     *
+     * @param cube
+     *            the cube
+     * @param symmetry
+     *            the symmetry
+     * @param element
+     *            element of the conjugate, numbered side * size * size +
+     *            element within side
+     * @return the color of the element
+     */
+    public byte getColor(Cube cube, int symmetry, int element) {
+        return colors[symmetry][cube.getColor(sourceSides[symmetry][element],
+                sourceElements[symmetry][element])];
+    }
+
+    /**
+     * Returns the symmetry with the smallest conjugate of a cube, comparing
+     * the colors of all elements in order. The conjugate is the same for all
+     * symmetric cubes, and so represents them all.
+     *
+     * @param cube
+     *            the cube
+     * @return the symmetry turning the cube into its representative
+     */
+    public int canonical(Cube cube) {
+        int elements = Cube.SIDES * size * size;
+        int best = 0;
+
+        for (int symmetry = 1; symmetry < COUNT; symmetry++) {
+            for (int element = 0; element < elements; element++) {
+                int difference = getColor(cube, symmetry, element)
+                        - getColor(cube, best, element);
+                if (difference < 0) {
+                    best = symmetry;
+                }
+                if (difference != 0) {
+                    break;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Stores the colors of all elements of the conjugate of a cube.
+     *
+     * @param cube
+     *            the cube
+     * @param symmetry
+     *            the symmetry
+     * @param target
+     *            array to store the colors in, numbered as in
+     *            {@link #getColor(Cube, int, int)}
+     */
+    public void conjugate(Cube cube, int symmetry, byte[] target) {
+        for (int element = 0; element < target.length; element++) {
+            target[element] = getColor(cube, symmetry, element);
+        }
+    }
+
+    /**
+     * Returns the twists matching all twists in a symmetry: doing twist m and
+     * then turning a cube is the same as turning it and doing twist result[m].
+     * The matching twists of the same axis have the same order as the twists,
+     * apart from opposite twists.
+     *
+     * @param symmetry
+     *            the symmetry
+     * @return the matching twists, indexed by twist. Must not be changed.
+     */
+    public int[] getMoves(int symmetry) {
+        return moves[symmetry];
+    }
+
+}
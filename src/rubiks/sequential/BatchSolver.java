@@ -0,0 +1,443 @@
+package rubiks.sequential;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rubiks.search.Heuristic;
+import rubiks.search.MaxHeuristic;
+import rubiks.search.PatternDatabase;
+import rubiks.search.PatternHeuristic;
+import rubiks.search.Reachability;
+
+/**
+ * Solves many cubes, each loaded from a file, or all from a single
+ * {@link CubeFile}, in a single run. A fixed number of threads each take the
+ * next cube from a shared list, solve that cube the same way as a single cube
+ * is solved (trying each bound in turn), and take the next cube until none
+ * are left. The number of cubes in memory is never more than the number of
+ * threads.
+ *
+ * Each thread keeps a {@link Solver} for every size of cube it has seen, so
+ * heuristics and tables are created once per run instead of once per cube.
+ * Pattern databases are loaded once, and shared by all threads, as is the
+ * {@link TranspositionTable}, if any: the number of solutions of a state does
+ * not depend on the cube it was reached from. Cubes found in the
+ * {@link ResultCache}, if any, are not searched at all.
+ *
+ * The result of every cube is written as soon as it is solved, as a single
+ * line with tab separated fields: the file, size, number of solutions, number
+ * of twists of the solutions, and milliseconds taken. Cubes which cannot be
+ * loaded, are not consistent (see {@link CubeFile}) or have no solution
+ * within the maximum bound give a line with the file, "error" and the reason
+ * instead. A cube with all colors present can still be impossible to solve,
+ * for instance with a single corner turned, and would be searched forever.
+ * Cubes of size 2 and 3 are therefore checked by {@link Reachability} before
+ * they are searched. Bigger cubes are not checked, so a maximum bound can be
+ * given for them; by default they are searched until solved.
+ * Lines are in the order the cubes are solved in, not the order of the files.
+ *
+ */
+public class BatchSolver {
+
+    /**
+     * Largest number of twists needed to solve any cube of size 2, counting
+     * every quarter twist. Used as the maximum bound for these cubes, unless
+     * another one is given.
+     */
+    public static final int MAX_TWISTS_2 = 14;
+
+    private final int threads;
+
+    private final boolean pruning;
+
+    // heuristic created for each size, used if there are no patterns
+    private final String heuristicName;
+
+    // pattern databases as heuristics, shared by all threads, and the size
+    // of cube they are for
+    private final PatternHeuristic[] patterns;
+
+    private final int patternSize;
+
+    private final int symmetryDepth;
+
+    private final TranspositionTable table;
+
+    private final ResultCache resultCache;
+
+    // largest bound searched, or 0 for the default of each size
+    private final int maxBound;
+
+    // checks for cubes which cannot be solved, by size, null if none
+    private final Reachability[] reachability = new Reachability[4];
+
+    /**
+     * Creates a solver for many cubes.
+     *
+     * @param threads
+     *            number of cubes to solve at the same time
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristicName
+     *            name of the heuristic to use, see
+     *            {@link Rubiks#createHeuristic(String, List, Cube)}
+     * @param patternFiles
+     *            pattern databases to use as heuristic instead, if any. All
+     *            must be for the same size of cube, other cubes cannot be
+     *            solved.
+     * @param symmetryDepth
+     *            depth of the subtrees of which symmetric ones are searched
+     *            once, or 0 for none
+     * @param table
+     *            table of nodes searched before, shared by all threads, or
+     *            null
+     * @param resultCache
+     *            results of cubes solved before, looked up before searching
+     *            and added to afterwards, or null
+     * @param maxBound
+     *            largest bound to search a cube for before giving up, or 0
+     *            for {@link #MAX_TWISTS_2} for cubes of size 2 and no
+     *            maximum for other cubes
+     * @throws Exception
+     *             if the heuristic is not known, or a pattern database
+     *             cannot be loaded
+     */
+    public BatchSolver(int threads, boolean pruning, String heuristicName,
+            List<String> patternFiles, int symmetryDepth,
+            TranspositionTable table, ResultCache resultCache, int maxBound)
+            throws Exception {
+        this.threads = threads;
+        this.pruning = pruning;
+        this.heuristicName = heuristicName;
+        this.symmetryDepth = symmetryDepth;
+        this.table = table;
+        this.resultCache = resultCache;
+        this.maxBound = maxBound;
+
+        for (int size = 0; size < reachability.length; size++) {
+            if (Reachability.isSupported(size)) {
+                reachability[size] = new Reachability(size);
+            }
+        }
+
+        patterns = new PatternHeuristic[patternFiles.size()];
+        int size = 0;
+        for (int i = 0; i < patterns.length; i++) {
+            PatternDatabase database = PatternDatabase.load(patternFiles
+                    .get(i));
+            if (size != 0 && database.getCubeSize() != size) {
+                throw new Exception("pattern databases are for different"
+                        + " sizes of cube: " + size + " and "
+                        + database.getCubeSize());
+            }
+            size = database.getCubeSize();
+            patterns[i] = new PatternHeuristic(database);
+        }
+        patternSize = size;
+
+        if (patterns.length == 0) {
+            // fail now for an unknown name, not for every cube
+            Rubiks.createHeuristic(heuristicName, new ArrayList<String>(),
+                    new Cube(2));
+        }
+    }
+
+    /**
+     * Returns the cube files of a batch: all files in a directory, by name, or
+     * all files listed in a file, one per line. Empty lines and lines starting
+     * with '#' are skipped. Files listed with a relative path are relative to
+     * the directory of the list.
+     *
+     * @param path
+     *            directory, or file with the list of files
+     * @return the cube files
+     * @throws Exception
+     *             if the directory or list cannot be read
+     */
+    public static List<String> files(String path) throws Exception {
+        File batch = new File(path);
+        List<String> result = new ArrayList<String>();
+
+        if (batch.isDirectory()) {
+            File[] files = batch.listFiles();
+            if (files == null) {
+                throw new Exception("cannot list directory " + path);
+            }
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile()) {
+                    result.add(file.getPath());
+                }
+            }
+            return result;
+        }
+
+        BufferedReader reader = new BufferedReader(new FileReader(batch));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader
+                    .readLine()) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                File file = new File(line);
+                if (!file.isAbsolute()) {
+                    file = new File(batch.getAbsoluteFile().getParentFile(),
+                            line);
+                }
+                result.add(file.getPath());
+            }
+        } finally {
+            reader.close();
+        }
+        return result;
+    }
+
+    /**
+     * Solves the cubes in a number of files, writing the result of each cube
+     * as soon as it is solved.
+     *
+     * @param fileNames
+     *            files with the cubes to solve
+     * @param output
+     *            stream to write the results to
+     * @return the number of cubes solved, not counting cubes with errors
+     */
+    public int solve(List<String> fileNames, PrintStream output) {
+        return solve(fileNames, null, fileNames.size(), output);
+    }
+
+    /**
+     * Solves all cubes in a {@link CubeFile}, writing the result of each cube
+     * as soon as it is solved. Every thread loads the cubes it solves into a
+     * single cube of its own. The result lines start with the name of the
+     * file, '#' and the number of the cube in the file, starting at 0.
+     *
+     * @param cubes
+     *            file with the cubes to solve
+     * @param output
+     *            stream to write the results to
+     * @return the number of cubes solved, not counting cubes with errors
+     */
+    public int solve(CubeFile cubes, PrintStream output) {
+        return solve(null, cubes, cubes.getCount(), output);
+    }
+
+    /**
+     * Solves cubes from either a list of files or a cube file with a number
+     * of threads.
+     */
+    private int solve(final List<String> fileNames, final CubeFile cubes,
+            int count, final PrintStream output) {
+        // next cube to solve, cubes solved by all threads
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger solved = new AtomicInteger(0);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] workers = new Thread[Math.min(threads, count)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Thread("batch solver " + i) {
+                public void run() {
+                    try {
+                        solved.addAndGet(solve(fileNames, cubes, next,
+                                output));
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while solving", e);
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new Error("batch solver thread failed", failure.get());
+        }
+
+        return solved.get();
+    }
+
+    /**
+     * Solves cubes until none are left. Run by every thread, with solvers of
+     * its own.
+     *
+     * @return the number of cubes solved
+     */
+    private int solve(List<String> fileNames, CubeFile cubes,
+            AtomicInteger next, PrintStream output) {
+        // solver for each size of cube seen so far
+        Solver[] solvers = new Solver[0];
+        int result = 0;
+
+        // cube all cubes of a cube file are loaded into
+        Cube loaded = null;
+        int count;
+        if (cubes == null) {
+            count = fileNames.size();
+        } else {
+            loaded = new Cube(cubes.getSize());
+            count = cubes.getCount();
+        }
+
+        for (int i = next.getAndIncrement(); i < count; i = next
+                .getAndIncrement()) {
+            String fileName;
+            if (cubes == null) {
+                fileName = fileNames.get(i);
+            } else {
+                fileName = cubes.getName() + "#" + i;
+            }
+            String line;
+
+            try {
+                Cube cube;
+                if (cubes == null) {
+                    cube = new Cube(fileName);
+                    cube.checkConsistent();
+                } else {
+                    cube = cubes.load(i, loaded);
+                }
+                int size = cube.getSize();
+                if (size < reachability.length
+                        && reachability[size] != null) {
+                    reachability[size].check(cube);
+                }
+                checkPatterns(cube);
+
+                if (size >= solvers.length) {
+                    solvers = Arrays.copyOf(solvers, size + 1);
+                }
+                if (solvers[size] == null) {
+                    solvers[size] = new Solver(size, pruning,
+                            heuristic(cube), symmetryDepth, table);
+                }
+
+                long start = System.currentTimeMillis();
+                int bound = 0;
+                int solutions = 0;
+                ResultCache.Result known = lookup(cube);
+                if (known != null) {
+                    bound = known.getBound();
+                    solutions = known.getCount();
+                }
+                while (solutions == 0) {
+                    if (bound >= maxBound(size)) {
+                        throw new Exception("no solution within "
+                                + maxBound(size) + " twists");
+                    }
+                    bound++;
+                    cube.setBound(bound);
+                    solutions = solvers[size].solutions(cube);
+                }
+                if (known == null) {
+                    store(cube, bound, solutions);
+                }
+                long end = System.currentTimeMillis();
+
+                line = fileName + "\t" + size + "\t" + solutions + "\t"
+                        + bound + "\t" + (end - start);
+                result++;
+            } catch (Exception e) {
+                line = fileName + "\terror\t" + e.getMessage();
+            }
+
+            synchronized (output) {
+                output.println(line);
+                output.flush();
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the largest bound to search cubes of a given size for.
+     */
+    private int maxBound(int size) {
+        if (maxBound > 0) {
+            return maxBound;
+        }
+        return size == 2 ? MAX_TWISTS_2 : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Returns the result of a cube in the result cache, if any. A cache which
+     * cannot be read is only reported, the cube is solved anyway.
+     */
+    private ResultCache.Result lookup(Cube cube) {
+        if (resultCache == null) {
+            return null;
+        }
+        try {
+            return resultCache.get(cube);
+        } catch (IOException e) {
+            System.err.println("Cannot read result cache: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Adds the result of a cube to the result cache, if any.
+     */
+    private void store(Cube cube, int bound, int solutions) {
+        if (resultCache == null) {
+            return;
+        }
+        try {
+            resultCache.put(cube, bound, solutions);
+        } catch (IOException e) {
+            System.err.println("Cannot write result cache: " + e);
+        }
+    }
+
+    /**
+     * Creates the heuristic for a thread to use for cubes of the size of the
+     * given cube.
+     */
+    private Heuristic heuristic(Cube cube) throws Exception {
+        if (patterns.length == 0) {
+            return Rubiks.createHeuristic(heuristicName,
+                    new ArrayList<String>(), cube);
+        }
+
+        if (patterns.length == 1) {
+            return patterns[0];
+        }
+        return new MaxHeuristic(patterns);
+    }
+
+    /**
+     * Checks if the pattern databases, if any, can be used for a cube.
+     */
+    private void checkPatterns(Cube cube) throws Exception {
+        if (patterns.length == 0) {
+            return;
+        }
+        if (cube.getSize() != patternSize) {
+            throw new Exception("pattern databases are for cubes of size "
+                    + patternSize);
+        }
+        for (PatternHeuristic pattern : patterns) {
+            if (!pattern.accepts(cube)) {
+                throw new Exception("pattern databases cannot be used for"
+                        + " the colors of this cube");
+            }
+        }
+    }
+
+}
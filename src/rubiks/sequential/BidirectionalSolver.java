@@ -0,0 +1,358 @@
+package rubiks.sequential;
+
+import rubiks.search.CornerSpace;
+import rubiks.search.EdgeSpace;
+import rubiks.search.Heuristic;
+import rubiks.search.PatternSpace;
+
+/**
+ * Solver meeting in the middle: for a bound of n twists, all sequences of n /
+ * 2 twists from the solved cube are stored in a table, after which all
+ * sequences of the remaining twists from the cube to solve are looked up in
+ * it. This takes about the square root of the time of searching all n twists
+ * from the cube, at the cost of memory for the table.
+ *
+ * The number of solutions is the number of pairs of sequences meeting in the
+ * same state. Both halves skip redundant sequences of twists with a
+ * {@link MoveFilter}, and count the skipped orders of runs of twists with it,
+ * so the number of solutions of the first bound with any solutions is the
+ * same as found by a {@link Solver}. The heuristic, if any, cuts off the half
+ * searched from the cube to solve.
+ *
+ * States are stored exactly, in two longs: which corner (and for standard
+ * cubes, which edge) is where, and how it is turned, as numbered by the
+ * patterns of the pattern databases, plus the colors of two centers. Only
+ * cubes of size 2 and 3 can be stored this way. Instead of reading the cube
+ * at every node, these numbers are followed through the moves of the
+ * patterns while searching, so the half searched from the solved cube does
+ * not use a cube at all.
+ *
+ */
+public class BidirectionalSolver {
+
+    // initial number of slots of the table
+    private static final int TABLE_CAPACITY = 1 << 16;
+
+    private final int size;
+
+    private final MoveFilter filter;
+
+    // lower bound for the twists needed to solve a cube, or null if none
+    private final Heuristic heuristic;
+
+    // corners and edges, with the move of each pattern for every twist,
+    // indexed by [pattern][twist]
+    private final PatternSpace[] patterns;
+
+    private final int[][] patternMoves;
+
+    // centers after a twist, indexed by [centers][twist], see centers()
+    private final int[][] centerMoves;
+
+    // state of each pattern and of the centers at every depth of the current
+    // sequence of twists, indexed by [pattern][depth] and [depth]
+    private long[][] indices = new long[0][];
+
+    private int[] centers = new int[0];
+
+    // number of sequences from the solved cube to each state, and the number
+    // of twists in these sequences
+    private StateTable table = null;
+
+    private int tableDepth = -1;
+
+    /**
+     * Returns if cubes of a given size can be solved by meeting in the
+     * middle.
+     *
+     * @param size
+     *            size of the cubes
+     * @return true if cubes of this size are supported
+     */
+    public static boolean supports(int size) {
+        return size == 2 || size == 3;
+    }
+
+    /**
+     * Creates a solver for cubes of a given size.
+     *
+     * @param size
+     *            size of the cubes to solve, see {@link #supports(int)}
+     * @param heuristic
+     *            estimate used to cut off the search, or null to search up to
+     *            the bound
+     */
+    public BidirectionalSolver(int size, Heuristic heuristic) {
+        if (!supports(size)) {
+            throw new Error("cannot meet in the middle for cubes of size "
+                    + size);
+        }
+        this.size = size;
+        this.heuristic = heuristic;
+
+        filter = new MoveFilter(size);
+
+        if (size == 3) {
+            patterns = new PatternSpace[1 + EdgeSpace.GROUPS];
+            for (int group = 0; group < EdgeSpace.GROUPS; group++) {
+                patterns[1 + group] = new EdgeSpace(size, group);
+            }
+        } else {
+            patterns = new PatternSpace[1];
+        }
+        patterns[0] = new CornerSpace(size);
+
+        int twists = new Cube(size).getMoveCount();
+        patternMoves = new int[patterns.length][twists];
+        for (int pattern = 0; pattern < patterns.length; pattern++) {
+            for (int twist = 0; twist < twists; twist++) {
+                patternMoves[pattern][twist] = patterns[pattern]
+                        .moveOf(twist);
+            }
+        }
+
+        if (size == 3) {
+            centerMoves = new int[Cube.SIDES * Cube.SIDES][twists];
+            findCenterMoves();
+        } else {
+            // no centers, a single state
+            centerMoves = new int[1][twists];
+        }
+    }
+
+    /**
+     * Fills in the centers after every twist, for all centers reachable from
+     * the solved cube.
+     */
+    private void findCenterMoves() {
+        // a cube with each of the centers found so far
+        Cube[] cubes = new Cube[centerMoves.length];
+        int[] queue = new int[centerMoves.length];
+
+        Cube solved = new Cube(size);
+        queue[0] = centers(solved);
+        cubes[queue[0]] = solved;
+        int found = 1;
+
+        for (int i = 0; i < found; i++) {
+            int from = queue[i];
+            Cube cube = cubes[from];
+
+            for (int twist = 0; twist < cube.getMoveCount(); twist++) {
+                cube.twist(twist);
+                int to = centers(cube);
+                centerMoves[from][twist] = to;
+                if (cubes[to] == null) {
+                    cubes[to] = new Cube(cube);
+                    queue[found++] = to;
+                }
+                cube.untwist(twist);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the centers of a cube: the colors of the front and
+     * top centers, which fix all other centers.
+     */
+    private static int centers(Cube cube) {
+        return (cube.getColor(Cube.FRONT, 4) * Cube.SIDES)
+                + cube.getColor(Cube.TOP, 4);
+    }
+
+    /**
+     * Returns if the colors of a cube match the solved cube this solver
+     * searches from.
+     *
+     * @param cube
+     *            cube to solve
+     * @return true if the cube can be solved by this solver
+     */
+    public boolean accepts(Cube cube) {
+        if (cube.getSize() != size) {
+            return false;
+        }
+        for (PatternSpace pattern : patterns) {
+            if (!pattern.accepts(cube)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds all solutions for a given cube. Only searches to the bound set in
+     * the cube object. The cube is twisted while searching, but is back in its
+     * original state when this function returns.
+     *
+     * @param cube
+     *            cube to solve
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube) {
+        if (cube.isSolved()) {
+            // the empty sequence of twists, as counted by Solver
+            return 1;
+        }
+
+        int bound = cube.getBound();
+        int backward = bound / 2;
+
+        if (bound + 1 > centers.length) {
+            indices = new long[patterns.length][bound + 1];
+            centers = new int[bound + 1];
+        }
+
+        if (tableDepth != backward) {
+            // the table of the previous bound is no longer needed
+            table = null;
+            table = new StateTable(TABLE_CAPACITY);
+
+            setRoot(new Cube(size));
+            store(0, backward, MoveFilter.START, 1);
+            tableDepth = backward;
+        }
+
+        setRoot(cube);
+        return probe(cube, bound - backward, MoveFilter.START, 1, bound);
+    }
+
+    /**
+     * Sets the state of the patterns and centers at depth 0 to those of a
+     * cube.
+     */
+    private void setRoot(Cube cube) {
+        for (int pattern = 0; pattern < patterns.length; pattern++) {
+            indices[pattern][0] = patterns[pattern].index(cube);
+        }
+        if (size == 3) {
+            centers[0] = centers(cube);
+        }
+    }
+
+    /**
+     * Sets the state of the patterns and centers at a depth, by doing a twist
+     * on the state at the depth before.
+     */
+    private void twist(int depth, int twist) {
+        for (int pattern = 0; pattern < patterns.length; pattern++) {
+            indices[pattern][depth] = patterns[pattern].move(
+                    indices[pattern][depth - 1], patternMoves[pattern][twist]);
+        }
+        centers[depth] = centerMoves[centers[depth - 1]][twist];
+    }
+
+    /**
+     * Returns the first part of the state at a depth: the corners and the
+     * centers.
+     */
+    private long high(int depth) {
+        return (indices[0][depth] * centerMoves.length) + centers[depth];
+    }
+
+    /**
+     * Returns the second part of the state at a depth: the edges, if any.
+     */
+    private long low(int depth) {
+        long result = 0;
+
+        for (int pattern = 1; pattern < patterns.length; pattern++) {
+            result = (result * patterns[pattern].size())
+                    + indices[pattern][depth];
+        }
+        return result;
+    }
+
+    /**
+     * Recursive function adding all sequences of twists from the solved cube
+     * up to the bound to the table.
+     *
+     * @param depth
+     *            number of twists done so far
+     * @param bound
+     *            number of twists in the sequences
+     * @param state
+     *            state of the move filter after the twists done so far
+     * @param weight
+     *            orders of the runs of twists before the current one
+     */
+    private void store(int depth, int bound, int state, int weight) {
+        if (depth == bound) {
+            table.add(high(depth), low(depth), weight * filter.weight(state));
+            return;
+        }
+
+        int count = patternMoves[0].length;
+        for (int move = 0; move < count; move++) {
+            int next = filter.next(state, move);
+            if (next == MoveFilter.SKIP) {
+                continue;
+            }
+            int childWeight = weight;
+            if (filter.isNewRun(next)) {
+                // the run ending here can be done in any order
+                childWeight *= filter.weight(state);
+            }
+
+            twist(depth + 1, move);
+            store(depth + 1, bound, next, childWeight);
+        }
+    }
+
+    /**
+     * Recursive function looking up all sequences of twists from the cube to
+     * solve up to the bound in the table. The cube itself is only twisted
+     * along for the heuristic.
+     *
+     * @param cube
+     *            cube to solve
+     * @param bound
+     *            number of twists in the sequences
+     * @param state
+     *            state of the move filter after the twists done so far
+     * @param weight
+     *            orders of the runs of twists before the current one
+     * @param total
+     *            bound for the twists of both halves together
+     * @return the number of solutions found
+     */
+    private int probe(Cube cube, int bound, int state, int weight, int total) {
+        int depth = cube.getTwists();
+
+        if (heuristic != null && depth + heuristic.estimate(cube) > total) {
+            // cannot be solved within the bound
+            return 0;
+        }
+
+        if (depth == bound) {
+            int count = table.get(high(depth), low(depth));
+            if (count == 0) {
+                return 0;
+            }
+            return weight * filter.weight(state) * count;
+        }
+
+        int result = 0;
+        int count = cube.getMoveCount();
+
+        for (int move = 0; move < count; move++) {
+            int next = filter.next(state, move);
+            if (next == MoveFilter.SKIP) {
+                continue;
+            }
+            int childWeight = weight;
+            if (filter.isNewRun(next)) {
+                // the run ending here can be done in any order
+                childWeight *= filter.weight(state);
+            }
+
+            twist(depth + 1, move);
+            cube.twist(move);
+            result += probe(cube, bound, next, childWeight, total);
+            cube.untwist(move);
+        }
+
+        return result;
+    }
+
+}
@@ -40,6 +40,9 @@ public class Cube implements Serializable {
 
     public static final int SIDES = 6; // # sizes of a cube
 
+    // most twists for which solvedAfter() can be used
+    public static final int MAX_BATCH_MOVES = Long.SIZE;
+
     // colors of elements
 
     public static final byte WHITE = 0; // value for white element
@@ -57,14 +60,27 @@ public class Cube implements Serializable {
     private int size; // size of this cube
 
     /*
-     * content of the cube. Data format is an array of sides, with all the
-     * elements of each side as an array of bytes.
+     * content of the cube. How the elements are stored depends on the layout
+     * for cubes of this size: standard and 2x2x2 cubes use the packed
+     * "faces", all other sizes the per-element "data", all sides in a single
+     * array. The unused one is null.
      *
      * expanded view of cube (with starting colors, top = white):
      *
      * W BOGR Y
      */
-    private final byte[][] data;
+    byte[] data;
+
+    int[] faces;
+
+    // Zobrist hash of the content, if the layout keeps it in the cube and
+    // hashed is set, see CubeLayout
+    transient long hash;
+
+    transient boolean hashed;
+
+    // layout of the content of this cube, shared with all cubes of this size
+    private transient CubeLayout layout;
 
     private int twists; // number of twists this cube is a result of
 
@@ -79,18 +95,12 @@ public class Cube implements Serializable {
     public Cube(int size) {
         this.size = size;
 
-        // init data arrays
-        data = new byte[SIDES][size * size];
-
         twists = 0;
         bound = 0;
 
-        // init state. side 0 should be white, side 1 is yellow, etc.
-        for (byte side = 0; side < SIDES; side++) {
-            for (int element = 0; element < size * size; element++) {
-                data[side][element] = side;
-            }
-        }
+        // init data arrays and state. side 0 should be white, side 1 is
+        // yellow, etc.
+        layout().init(this);
     }
 
     /**
@@ -148,22 +158,15 @@ public class Cube implements Serializable {
         this.twists = original.twists;
         this.bound = original.bound;
 
-        // init data arrays
-        data = new byte[SIDES][size * size];
-
-        // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            for (int j = 0; j < size * size; j++) {
-                data[i][j] = original.data[i][j];
-            }
-        }
-
+        // init data arrays and state.
+        layout().init(this);
+        layout.copy(original, this);
     }
 
     public Cube(String fileName) throws Exception {
         File file = new File(fileName);
         if (!file.exists()) {
-            throw new Exception(fileName + "does not exist");
+            throw new Exception(fileName + " does not exist");
         }
 
         BufferedReader reader = null;
@@ -180,7 +183,7 @@ public class Cube implements Serializable {
             }
 
             // init data arrays
-            data = new byte[SIDES][size * size];
+            layout().init(this);
 
             for (int i = 0; i < SIDES; i++) {
                 for (int x = 0; x < size; x++) {
@@ -195,7 +198,7 @@ public class Cube implements Serializable {
                         byte color = parseElement(line.charAt(y));
                         int elementIndex = element(x, y);
 
-                        data[i][elementIndex] = color;
+                        layout.set(this, i, elementIndex, color);
                     }
 
                 }
@@ -219,9 +222,46 @@ public class Cube implements Serializable {
         target.bound = bound;
 
         // init state.
-        for (byte i = 0; i < SIDES; i++) {
-            System.arraycopy(data[i], 0, target.data[i], 0, data[i].length);
-        }
+        layout().copy(this, target);
+    }
+
+    /**
+     * Returns the number of ints needed to store the content of this cube
+     * with {@link #save(int[], int)}.
+     *
+     * @return the length of the content of this cube
+     */
+    int contentLength() {
+        return layout().contentLength();
+    }
+
+    /**
+     * Stores the content of this cube (but not its twists or bound) in part
+     * of an int array.
+     *
+     * @param target
+     *            array to store the content in
+     * @param offset
+     *            index of the first int to use
+     */
+    void save(int[] target, int offset) {
+        layout().save(this, target, offset);
+    }
+
+    /**
+     * Sets the content of this cube to content stored by
+     * {@link #save(int[], int)}, and the number of twists it is a result of.
+     *
+     * @param source
+     *            array with the stored content
+     * @param offset
+     *            index of the first int of the content
+     * @param twists
+     *            number of twists done to get the stored content
+     */
+    void load(int[] source, int offset, int twists) {
+        layout().load(source, offset, this);
+        this.twists = twists;
     }
 
     /**
@@ -264,21 +304,130 @@ public class Cube implements Serializable {
     }
 
     /**
-     * Returns if this cube is solved or not.
+     * Sets the color of a single element of this cube, for cubes stored in
+     * some other way than by {@link #save(int[], int)}.
+     *
+     * @param side
+     *            side of the element
+     * @param element
+     *            element of the side, row * size + column
+     * @param color
+     *            new color of the element
+     */
+    void setColor(int side, int element, byte color) {
+        layout().set(this, side, element, color);
+    }
+
+    /**
+     * Sets the number of twists this cube is a result of.
+     *
+     * @param twists
+     *            the number of twists
+     */
+    void setTwists(int twists) {
+        this.twists = twists;
+    }
+
+    /**
+     * Returns the color of a single element of this cube.
+     *
+     * @param side
+     *            side of the element (TOP, LEFT, etc)
+     * @param element
+     *            index of the element within its side (row * size + column)
+     * @return the color of the element (WHITE, BLUE, etc)
+     */
+    public byte getColor(int side, int element) {
+        return layout().get(this, side, element);
+    }
+
+    /**
+     * Returns if this cube is solved or not. Takes only a few comparisons for
+     * cubes which are not solved.
      *
      * @return true if solved, false if not
      */
     public boolean isSolved() {
-        for (byte i = 0; i < SIDES; i++) {
-            // all elements must be the same color as first element
-            byte color = data[i][0];
-            for (int j = 1; j < size * size; j++) {
-                if (data[i][j] != color) {
-                    return false;
-                }
-            }
+        return layout().isSolved(this);
+    }
+
+    /**
+     * Returns if this cube would be solved after a twist. For big cubes this
+     * is much cheaper than twisting the cube, checking it and twisting it
+     * back, as only the elements compared are read.
+     *
+     * @param move
+     *            number of the twist ( 0 <= move < getMoveCount() )
+     * @return true if solved after the twist, false if not
+     */
+    public boolean isSolvedAfter(int move) {
+        return layout().isSolvedAfter(this, move);
+    }
+
+    /**
+     * Returns which twists would solve this cube, checking all twists at once.
+     * Only for cubes with at most {@link #MAX_BATCH_MOVES} twists.
+     *
+     * @return a mask with bit m set if solved after twist m
+     */
+    public long solvedAfter() {
+        return layout().solvedAfter(this);
+    }
+
+    /**
+     * Returns a 64 bit hash of the content of this cube: the colors of all
+     * elements, but not the twists or bound. Cubes with the same content have
+     * the same hash, other cubes almost never do.
+     *
+     * @return the hash of this cube
+     */
+    public long hash() {
+        return layout().hash(this);
+    }
+
+    /**
+     * Keeps the hash of this cube up to date while twisting it, and in
+     * copies, so {@link #hash()} no longer looks at all elements. Every
+     * twist then updates the hash using only the elements it moves, which
+     * is only worth it if the hash is needed after most twists. Standard
+     * cubes are hashed fast enough without.
+     */
+    public void keepHash() {
+        layout().keepHash(this);
+    }
+
+    /**
+     * Returns a hash code based on the content of this cube, see
+     * {@link #hash()}.
+     *
+     * @return the hash code of this cube
+     */
+    @Override
+    public int hashCode() {
+        long hash = hash();
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Returns if another cube has the same size and content as this cube. The
+     * twists and bound are not compared. Cubes with a different hash are not
+     * compared any further.
+     *
+     * @param other
+     *            the object to compare with
+     * @return true if the other object is a cube with the same content
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
         }
-        return true;
+        if (!(other instanceof Cube)) {
+            return false;
+        }
+        Cube that = (Cube) other;
+        return size == that.size && hash() == that.hash()
+                && layout().sameContent(this, that);
     }
 
     /**
@@ -330,25 +479,55 @@ public class Cube implements Serializable {
         }
 
         Cube result = cache.get();
-        this.copyTo(result);
+        result.size = size;
+        result.twists = twists + 1;
+        result.bound = bound;
+
+        // copies and twists in one go
+        layout().twist(this, result, axis, row, direction);
 
-        switch (axis) {
-        case X:
-            result.twistX(row, direction);
-            break;
-        case Y:
-            result.twistY(row, direction);
-            break;
-        case Z:
-            result.twistZ(row, direction);
-            break;
-        default:
-            // should not happen, but you never know :)
-            throw new Error("unknown axis in twist");
-        }
         return result;
     }
 
+    /**
+     * Returns the number of possible twists of this cube. Twists are numbered
+     * from 0 up to this number, in the same order as the children returned by
+     * {@link #generateChildren(CubeCache)}. The opposite of twist m is twist m
+     * ^ 1.
+     *
+     * @return the number of possible twists
+     */
+    public int getMoveCount() {
+        return 6 * (size - 1);
+    }
+
+    /**
+     * Twist this cube in place, without creating a new cube.
+     *
+     * @param move
+     *            number of the twist ( 0 <= move < getMoveCount() )
+     */
+    public void twist(int move) {
+        layout().twist(this, move);
+
+        // record this twist
+        twists++;
+    }
+
+    /**
+     * Undo a twist of this cube done by {@link #twist(int)}, by twisting it
+     * back in the opposite direction.
+     *
+     * @param move
+     *            number of the twist to undo
+     */
+    public void untwist(int move) {
+        layout().twist(this, move ^ 1);
+
+        // forget this twist
+        twists--;
+    }
+
     /**
      * Print cube.
      *
@@ -390,14 +569,16 @@ public class Cube implements Serializable {
     // *** Only private functions ahead. No need to understand those ;) ***\\
 
     /**
-     * Computes the "inverse" of a row or column (last = first, etc)
+     * Returns the layout of this cube. The layout is not serialized with the
+     * cube, so it is looked up again when needed.
      *
-     * @param value
-     *            original value
-     * @return inverse of value (last = first, etc)
+     * @return the layout of this cube
      */
-    private int inverse(int value) {
-        return size - 1 - value;
+    private CubeLayout layout() {
+        if (layout == null) {
+            layout = CubeLayout.forSize(size);
+        }
+        return layout;
     }
 
     /**
@@ -414,44 +595,6 @@ public class Cube implements Serializable {
         return (row * size) + column;
     }
 
-    /**
-     * rotate side of a cube (side effect of twisting)
-     *
-     * @param side
-     *            side to turn
-     * @param direction
-     *            direction to turn side in (positive or negative)
-     */
-    private void rotate(int side, boolean direction) {
-        byte[] result = new byte[size * size];
-
-        if (direction) {
-            for (int row = 0; row < size; row++) {
-                int toColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int toRow = column;
-                    // System.out.println(row + "," + column + " <= " + toRow
-                    // + "," + toColumn);
-                    result[(toRow * size) + toColumn] = data[side][(row * size)
-                            + column];
-                }
-            }
-        } else {
-            for (int row = 0; row < size; row++) {
-                int fromColumn = inverse(row);
-                for (int column = 0; column < size; column++) {
-                    int fromRow = column;
-                    // System.out.println(row + "," + column + " <= " + fromRow
-                    // + "," + fromColumn);
-                    result[(row * size) + column] = data[side][(fromRow * size)
-                            + fromColumn];
-                }
-            }
-        }
-
-        System.arraycopy(result, 0, data[side], 0, result.length);
-    }
-
     /**
      * Twist cube on the X-axis.
      *
@@ -461,30 +604,7 @@ public class Cube implements Serializable {
      *            direction to turn, either positive or negative
      */
     private void twistX(int firstRow, boolean direction) {
-        // System.out.println("Twisting over X axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        int firstElement = firstRow * size;
-
-        // warning: fiddling with cube content ahead :)
-        for (int element = firstElement; element < size * size; element++) {
-
-            if (direction) {
-                byte tmp = data[BACK][element];
-                data[BACK][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[FRONT][element];
-                data[FRONT][element] = data[LEFT][element];
-                data[LEFT][element] = tmp;
-            } else {
-                byte tmp = data[LEFT][element];
-                data[LEFT][element] = data[FRONT][element];
-                data[FRONT][element] = data[RIGHT][element];
-                data[RIGHT][element] = data[BACK][element];
-                data[BACK][element] = tmp;
-            }
-        }
-
-        rotate(BOTTOM, direction);
+        layout().twistX(this, firstRow, direction);
 
         // record this twist
         twists++;
@@ -499,39 +619,10 @@ public class Cube implements Serializable {
      *            direction to turn, either positive or negative
      */
     private void twistY(int firstColumn, boolean direction) {
-        // System.out.println("Twisting over Y axis, first column " +
-        // firstColumn
-        // + " in positive direction: " + direction);
-
-        for (int row = 0; row < size; row++) {
-            for (int column = firstColumn; column < size; column++) {
-                int element = (row * size) + column;
-
-                // back is "mirrored"
-                int backRow = inverse(row);
-                int backColumn = inverse(column);
-                int backElement = (backRow * size) + backColumn;
-
-                if (direction) {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[FRONT][element];
-                    data[FRONT][element] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[BACK][backElement];
-                    data[BACK][backElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][element];
-                    data[TOP][element] = data[BACK][backElement];
-                    data[BACK][backElement] = data[BOTTOM][element];
-                    data[BOTTOM][element] = data[FRONT][element];
-                    data[FRONT][element] = tmp;
-                }
-            }
-        }
-        rotate(RIGHT, direction);
+        layout().twistY(this, firstColumn, direction);
 
         // record this twist
         twists++;
-
     }
 
     /**
@@ -543,44 +634,7 @@ public class Cube implements Serializable {
      *            direction to turn, either positive or negative
      */
     private void twistZ(int firstRow, boolean direction) {
-        // System.out.println("Twisting over Z axis, first row " + firstRow
-        // + " in positive direction: " + direction);
-
-        for (int row = firstRow; row < size; row++) {
-            for (int column = 0; column < size; column++) {
-                int topRow = inverse(row);
-                int topColumn = column;
-                int topElement = element(topRow, topColumn);
-
-                int rightRow = column;
-                int rightColumn = row;
-                int rightElement = element(rightRow, rightColumn);
-
-                int bottomRow = row;
-                int bottomColumn = inverse(column);
-                int bottomElement = element(bottomRow, bottomColumn);
-
-                int leftRow = inverse(column);
-                int leftColumn = inverse(row);
-                int leftElement = element(leftRow, leftColumn);
-
-                if (direction) {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = tmp;
-                } else {
-                    byte tmp = data[TOP][topElement];
-                    data[TOP][topElement] = data[RIGHT][rightElement];
-                    data[RIGHT][rightElement] = data[BOTTOM][bottomElement];
-                    data[BOTTOM][bottomElement] = data[LEFT][leftElement];
-                    data[LEFT][leftElement] = tmp;
-                }
-            }
-        }
-
-        rotate(BACK, !direction);
+        layout().twistZ(this, firstRow, direction);
 
         // record this twist
         twists++;
@@ -592,11 +646,33 @@ public class Cube implements Serializable {
      *
      */
     private void checkIfConsistent() {
+        if (!isConsistent()) {
+            throw new Error("cube not consistent!");
+        }
+    }
+
+    /**
+     * Checks if consistent, for cubes loaded from a file, which may contain
+     * anything. Same check as {@link #checkIfConsistent()}.
+     *
+     * @throws Exception
+     *             if the cube is not consistent
+     */
+    void checkConsistent() throws Exception {
+        if (!isConsistent()) {
+            throw new Exception("cube not consistent");
+        }
+    }
+
+    /**
+     * Returns if every color occurs size * size times.
+     */
+    private boolean isConsistent() {
         int[] counts = new int[SIDES];
 
         for (int side = 0; side < SIDES; side++) {
             for (int element = 0; element < size * size; element++) {
-                int color = data[side][element];
+                int color = layout().get(this, side, element);
 
                 counts[color]++;
             }
@@ -604,9 +680,10 @@ public class Cube implements Serializable {
 
         for (int i = 0; i < SIDES; i++) {
             if (counts[i] != size * size) {
-                throw new Error("cube not consistent!");
+                return false;
             }
         }
+        return true;
     }
 
     private void printSpaces(int spaces, PrintStream out) {
@@ -638,7 +715,7 @@ public class Cube implements Serializable {
         // System.err.println("printing side = " + side + " row = " + row
         // + " column = " + column);
 
-        byte color = data[side][(row * size) + column];
+        byte color = layout().get(this, side, element(row, column));
 
         switch (color) {
         case WHITE:
@@ -18,6 +18,11 @@ public class CubeCache {
 
     private int currentSize;
 
+    // cubes taken from the cache, and created because it was empty, since
+    // the last collect()
+    private long hits;
+
+    private long misses;
 
     /**
      * Constructor.
@@ -52,11 +57,26 @@ public class CubeCache {
      */
     public Cube get() {
         if (currentSize == 0) {
+            misses++;
             return new Cube(cubeSize);
         }
 
+        hits++;
         currentSize--;
         return cache[currentSize];
     }
 
+    /**
+     * Adds the hits and misses of this cache since the last call to the
+     * statistics of the current bound, and starts counting from 0 again.
+     *
+     * @param statistics
+     *            statistics to add to
+     */
+    public void collect(SearchStatistics statistics) {
+        statistics.addCache(hits, misses);
+        hits = 0;
+        misses = 0;
+    }
+
 }
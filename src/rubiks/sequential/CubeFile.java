@@ -0,0 +1,422 @@
+package rubiks.sequential;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * File with many cubes of the same size in a compact binary format, for
+ * batches too big to keep every cube in a text file of its own. Colors are
+ * stored in 4 bits each, two per byte (the lowest 4 bits for the even
+ * element), side after side in the same order as in a text file, so a cube
+ * takes {@link #recordSize(int)} bytes.
+ *
+ * The file is mapped into memory instead of read. Cubes are decoded straight
+ * from the mapping into a cube given by the caller, so reading a file does
+ * not create an object per cube, and any number of threads can read from the
+ * same file at once.
+ *
+ * A file starts with a header of {@link #HEADER_SIZE} bytes (big endian):
+ *
+ * <pre>
+ *  0 magic           "RUBIKCUB"
+ *  8 version         int
+ * 12 cube size       int
+ * 16 cubes           long
+ * 24 record size     int, bytes per cube
+ * </pre>
+ *
+ * A file is checked when it is opened: every cube must have each of the six
+ * colors exactly size * size times, the same check as done for a random cube
+ * (which does not check if the cube can actually be solved).
+ *
+ */
+public final class CubeFile {
+
+    static final long MAGIC = 0x525542494B435542L; // "RUBIKCUB"
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 32;
+
+    // most bytes mapped at once, a mapping cannot be larger than 2 GB
+    private static final int MAX_MAPPING = 1 << 30;
+
+    private final String fileName;
+
+    private final int size;
+
+    private final int count;
+
+    private final int recordSize;
+
+    // cubes in each mapping
+    private final int perMapping;
+
+    // all cubes, starting after the header, perMapping cubes per buffer
+    private final ByteBuffer[] mappings;
+
+    private CubeFile(String fileName, int size, int count,
+            ByteBuffer[] mappings, int perMapping) {
+        this.fileName = fileName;
+        this.size = size;
+        this.count = count;
+        this.recordSize = recordSize(size);
+        this.mappings = mappings;
+        this.perMapping = perMapping;
+    }
+
+    /**
+     * Checks if a file starts like a cube file, without checking the rest of
+     * it.
+     *
+     * @param fileName
+     *            name of the file
+     * @return true if the file is a cube file, false if it is not, or cannot
+     *         be read
+     */
+    public static boolean isCubeFile(String fileName) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(fileName, "r");
+            try {
+                return file.length() >= HEADER_SIZE
+                        && file.readLong() == MAGIC;
+            } finally {
+                file.close();
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps a cube file into memory, and checks all cubes in it.
+     *
+     * @param fileName
+     *            name of the file
+     * @return the file
+     * @throws Exception
+     *             if the file cannot be read, is not a cube file, or has an
+     *             inconsistent cube
+     */
+    public static CubeFile open(String fileName) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            if (channel.size() < HEADER_SIZE) {
+                throw new Exception(fileName + " is not a cube file");
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    HEADER_SIZE);
+
+            if (header.getLong(0) != MAGIC) {
+                throw new Exception(fileName + " is not a cube file");
+            }
+            if (header.getInt(8) != VERSION) {
+                throw new Exception(fileName + " has unsupported version "
+                        + header.getInt(8));
+            }
+            int size = header.getInt(12);
+            long count = header.getLong(16);
+            if (size < 2 || header.getInt(24) != recordSize(size)) {
+                throw new Exception(fileName + " has wrong record size");
+            }
+            if (count > Integer.MAX_VALUE) {
+                throw new Exception(fileName + " has too many cubes: "
+                        + count);
+            }
+            long records = count * recordSize(size);
+            if (channel.size() != HEADER_SIZE + records) {
+                throw new Exception(fileName + " has wrong size");
+            }
+
+            int perMapping = Math.max(MAX_MAPPING / recordSize(size), 1);
+            ByteBuffer[] mappings = new ByteBuffer[(int) ((count
+                    + perMapping - 1) / perMapping)];
+            for (int i = 0; i < mappings.length; i++) {
+                long offset = (long) i * perMapping * recordSize(size);
+                mappings[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_SIZE + offset, Math.min(records - offset,
+                                (long) perMapping * recordSize(size)));
+            }
+
+            CubeFile result = new CubeFile(fileName, size, (int) count,
+                    mappings, perMapping);
+            result.check();
+            return result;
+        } finally {
+            // the mappings stay valid after closing the file
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the number of bytes a cube of the given size takes in a file.
+     */
+    static int recordSize(int size) {
+        // 6 * size * size elements, always an even number
+        return Cube.SIDES * size * size / 2;
+    }
+
+    /**
+     * Checks all cubes, counting the colors of a cube straight from its
+     * bytes.
+     */
+    private void check() throws Exception {
+        byte[] record = new byte[recordSize];
+        int[] counts = new int[16];
+
+        for (int i = 0; i < mappings.length; i++) {
+            ByteBuffer mapping = mappings[i].duplicate();
+            mapping.clear();
+
+            for (int j = 0; mapping.hasRemaining(); j++) {
+                mapping.get(record);
+                if (!isConsistent(record, size, counts)) {
+                    throw new Exception(fileName + ": cube "
+                            + ((i * perMapping) + j) + " not consistent");
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if a stored cube has each of the six colors exactly size * size
+     * times. Any other value of an element makes another count too low.
+     * Counts are kept in the given array of 16 ints, to not create one for
+     * every cube.
+     */
+    static boolean isConsistent(byte[] record, int size, int[] counts) {
+        Arrays.fill(counts, 0);
+
+        for (int i = 0; i < record.length; i++) {
+            counts[record[i] & 0x0f]++;
+            counts[(record[i] >>> 4) & 0x0f]++;
+        }
+
+        for (int color = 0; color < Cube.SIDES; color++) {
+            if (counts[color] != size * size) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the name of this file.
+     *
+     * @return the name of this file
+     */
+    public String getName() {
+        return fileName;
+    }
+
+    /**
+     * Returns the size of the cubes in this file.
+     *
+     * @return the size of the cubes
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of cubes in this file.
+     *
+     * @return the number of cubes
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Loads a cube from this file into an existing cube of the same size. The
+     * cube gets 0 twists and a bound of 0, the same as a cube loaded from a
+     * text file.
+     *
+     * @param index
+     *            number of the cube in this file, starting at 0
+     * @param cube
+     *            cube to load into
+     * @return the given cube
+     */
+    public Cube load(int index, Cube cube) {
+        if (cube.getSize() != size) {
+            throw new Error("cannot load a cube of size " + size
+                    + " into a cube of size " + cube.getSize());
+        }
+
+        ByteBuffer mapping = mappings[index / perMapping];
+        int position = (index % perMapping) * recordSize;
+        int area = size * size;
+        int side = 0;
+        int offset = 0;
+
+        for (int element = 0; element < 2 * recordSize; element++) {
+            int colors = mapping.get(position + (element >> 1));
+            cube.setColor(side, offset,
+                    (byte) ((colors >>> ((element & 1) * 4)) & 0x0f));
+
+            offset++;
+            if (offset == area) {
+                offset = 0;
+                side++;
+            }
+        }
+
+        cube.setTwists(0);
+        cube.setBound(0);
+        return cube;
+    }
+
+    /**
+     * Writes cubes loaded from text files into a cube file. All cubes must be
+     * of the same size.
+     *
+     * @param fileNames
+     *            files with the cubes
+     * @param outputName
+     *            name of the cube file to write
+     * @return the size of the cubes
+     * @throws Exception
+     *             if a cube cannot be loaded, is not consistent, or differs
+     *             in size from the first cube, or the file cannot be written
+     */
+    public static int write(List<String> fileNames, String outputName)
+            throws Exception {
+        if (fileNames.isEmpty()) {
+            throw new Exception("no cubes to write");
+        }
+
+        int size = new Cube(fileNames.get(0)).getSize();
+        byte[] record = new byte[recordSize(size)];
+        int[] counts = new int[16];
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(0, MAGIC);
+        header.putInt(8, VERSION);
+        header.putInt(12, size);
+        header.putLong(16, fileNames.size());
+        header.putInt(24, record.length);
+
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(
+                outputName), 1 << 16);
+        try {
+            output.write(header.array());
+
+            for (String fileName : fileNames) {
+                Cube cube = new Cube(fileName);
+                if (cube.getSize() != size) {
+                    throw new Exception(fileName + " has a cube of size "
+                            + cube.getSize() + ", expected " + size);
+                }
+
+                store(cube, record);
+                if (!isConsistent(record, size, counts)) {
+                    throw new Exception(fileName + ": cube not consistent");
+                }
+                output.write(record);
+            }
+        } catch (Exception e) {
+            // do not leave a file which cannot be opened
+            output.close();
+            new File(outputName).delete();
+            throw e;
+        }
+        output.close();
+
+        return size;
+    }
+
+    /**
+     * Stores the colors of a cube in a record.
+     */
+    private static void store(Cube cube, byte[] record) {
+        int area = cube.getSize() * cube.getSize();
+
+        for (int i = 0; i < record.length; i++) {
+            int element = 2 * i;
+            int low = cube.getColor(element / area, element % area);
+            element++;
+            int high = cube.getColor(element / area, element % area);
+            record[i] = (byte) (low | (high << 4));
+        }
+    }
+
+    /**
+     * Prints usage.
+     */
+    private static void printUsage() {
+        System.out.println("Converts cube files in the text format into a"
+                + " single binary cube file,");
+        System.out.println(" which can be solved with --batch.");
+        System.out.println("");
+        System.out.println("USAGE: CubeFile --output FILE_NAME PATH");
+        System.out.println("");
+        System.out.println("PATH is a directory with the cube files, or a"
+                + " file listing them, one per line.");
+        System.out.println("");
+        System.out.println("Options:");
+        System.out
+                .println("--output FILE_NAME\t\tFile to write (default: PATH.cubes)");
+        System.out.println("");
+    }
+
+    /**
+     * Main function.
+     *
+     * @param arguments
+     *            list of arguments
+     */
+    public static void main(String[] arguments) {
+        String path = null;
+        String outputName = null;
+
+        for (int i = 0; i < arguments.length; i++) {
+            if (arguments[i].equalsIgnoreCase("--output")) {
+                i++;
+                outputName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--help")
+                    || arguments[i].equalsIgnoreCase("-h")) {
+                printUsage();
+                System.exit(0);
+            } else if (path == null && !arguments[i].startsWith("-")) {
+                path = arguments[i];
+            } else {
+                System.err.println("unknown option : " + arguments[i]);
+                printUsage();
+                System.exit(1);
+            }
+        }
+
+        if (path == null) {
+            printUsage();
+            System.exit(1);
+        }
+        if (outputName == null) {
+            outputName = new File(path).getPath() + ".cubes";
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            List<String> fileNames = BatchSolver.files(path);
+            int size = write(fileNames, outputName);
+            long end = System.currentTimeMillis();
+
+            System.out.println("Wrote " + fileNames.size()
+                    + " cubes of size " + size + " to " + outputName);
+            System.err.println("Converting took " + (end - start)
+                    + " milliseconds");
+        } catch (Exception e) {
+            System.err.println("Cannot convert cubes: " + e);
+            System.exit(1);
+        }
+    }
+
+}
@@ -0,0 +1,335 @@
+package rubiks.sequential;
+
+import java.util.Random;
+
+/**
+ * Storage format of the content of a cube, and the twists that operate on it.
+ * All cubes of a given size share a single layout, which keeps no state of
+ * its own apart from (read-only) tables.
+ *
+ * Standard 3x3x3 and 2x2x2 cubes use a packed layout with all elements of a
+ * side in a single int. All other sizes store one byte per element. Setting
+ * the system property {@value #GENERIC_PROPERTY} to true makes all sizes use
+ * the byte per element layout, to compare the layouts.
+ *
+ * Each layout also hashes the content of a cube to 64 bits, by xor-ing a
+ * random number for the color of every element (Zobrist hashing). The numbers
+ * are the same for all layouts of a size, and for every run.
+ *
+ */
+abstract class CubeLayout {
+
+    /**
+     * System property forcing the generic layout for all sizes.
+     */
+    static final String GENERIC_PROPERTY = "rubiks.layout.generic";
+
+    // bits per color in the random numbers, so any 3 bit value has one
+    static final int COLOR_BITS = 3;
+
+    // layouts created so far, indexed by cube size
+    private static CubeLayout[] layouts = new CubeLayout[0];
+
+    /**
+     * Returns the layout to use for cubes of the given size.
+     *
+     * @param size
+     *            size of the cube
+     * @return the layout for cubes of this size
+     */
+    static synchronized CubeLayout forSize(int size) {
+        if (size < 2) {
+            throw new Error("cube size must be at least 2, got " + size);
+        }
+
+        if (size >= layouts.length) {
+            CubeLayout[] newLayouts = new CubeLayout[size + 1];
+            System.arraycopy(layouts, 0, newLayouts, 0, layouts.length);
+            layouts = newLayouts;
+        }
+
+        if (layouts[size] == null) {
+            if (Boolean.getBoolean(GENERIC_PROPERTY)) {
+                layouts[size] = new FaceletLayout(size);
+            } else if (size == PackedLayout.SIZE) {
+                layouts[size] = new PackedLayout();
+            } else if (size == PocketLayout.SIZE) {
+                layouts[size] = new PocketLayout();
+            } else {
+                layouts[size] = new FaceletLayout(size);
+            }
+        }
+        return layouts[size];
+    }
+
+    // random number for each color of each element, indexed by
+    // ((side * size * size) + element) << COLOR_BITS | color
+    final long[] keys;
+
+    CubeLayout(int size) {
+        Random random = new Random(size);
+
+        keys = new long[(Cube.SIDES * size * size) << COLOR_BITS];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Allocates the content of the given cube, and puts it in the "solved"
+     * state, with side i having color i.
+     *
+     * @param cube
+     *            the cube to initialize
+     */
+    abstract void init(Cube cube);
+
+    /**
+     * Returns the color of a single element.
+     *
+     * @param cube
+     *            cube to read from
+     * @param side
+     *            side of the element
+     * @param element
+     *            index of the element within its side (row * size + column)
+     * @return the color of the element
+     */
+    abstract byte get(Cube cube, int side, int element);
+
+    /**
+     * Sets the color of a single element.
+     *
+     * @param cube
+     *            cube to change
+     * @param side
+     *            side of the element
+     * @param element
+     *            index of the element within its side (row * size + column)
+     * @param color
+     *            the new color of the element
+     */
+    abstract void set(Cube cube, int side, int element, byte color);
+
+    /**
+     * Copies the content of one cube into another cube of the same size.
+     *
+     * @param source
+     *            cube to copy from
+     * @param target
+     *            cube to copy to
+     */
+    abstract void copy(Cube source, Cube target);
+
+    /**
+     * Returns the number of ints needed to store the content of a cube with
+     * {@link #save(Cube, int[], int)}.
+     *
+     * @return the length of the content of a cube
+     */
+    abstract int contentLength();
+
+    /**
+     * Stores the content of a cube in (part of) an int array.
+     *
+     * @param cube
+     *            cube to store
+     * @param target
+     *            array to store the content in
+     * @param offset
+     *            index of the first int to use
+     */
+    abstract void save(Cube cube, int[] target, int offset);
+
+    /**
+     * Sets the content of a cube to content stored by
+     * {@link #save(Cube, int[], int)}.
+     *
+     * @param source
+     *            array with the stored content
+     * @param offset
+     *            index of the first int of the content
+     * @param cube
+     *            cube to set
+     */
+    abstract void load(int[] source, int offset, Cube cube);
+
+    /**
+     * Returns if all sides of the given cube have a single color.
+     *
+     * @param cube
+     *            cube to check
+     * @return true if solved, false if not
+     */
+    abstract boolean isSolved(Cube cube);
+
+    /**
+     * Returns if a cube would be solved after a twist. By default the cube is
+     * twisted and twisted back, layouts which can tell without changing the
+     * cube override this.
+     *
+     * @param cube
+     *            cube to check, not changed
+     * @param move
+     *            number of the twist, see {@link Cube#getMoveCount()}
+     * @return true if the twisted cube is solved
+     */
+    boolean isSolvedAfter(Cube cube, int move) {
+        twist(cube, move);
+        boolean result = isSolved(cube);
+        twist(cube, move ^ 1);
+        return result;
+    }
+
+    /**
+     * Returns which twists would solve a cube, for cubes with at most 64
+     * twists. By default each twist is checked with
+     * {@link #isSolvedAfter(Cube, int)}.
+     *
+     * @param cube
+     *            cube to check, not changed
+     * @return a mask with bit m set if the cube is solved after twist m
+     */
+    long solvedAfter(Cube cube) {
+        long result = 0;
+        int moves = cube.getMoveCount();
+
+        for (int move = 0; move < moves; move++) {
+            if (isSolvedAfter(cube, move)) {
+                result |= 1L << move;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Zobrist hash of the content of a cube.
+     *
+     * @param cube
+     *            cube to hash
+     * @return the xor of the random numbers for the colors of all elements
+     */
+    abstract long hash(Cube cube);
+
+    /**
+     * Keeps the hash of a cube up to date from now on, if this layout can do
+     * so faster than hashing the cube again. Does nothing by default.
+     *
+     * @param cube
+     *            cube to keep the hash of
+     */
+    void keepHash(Cube cube) {
+        // hashing is fast enough
+    }
+
+    /**
+     * Returns if two cubes of the same size have the same content.
+     *
+     * @param cube
+     *            one cube
+     * @param other
+     *            the other cube
+     * @return true if all elements have the same color in both cubes
+     */
+    abstract boolean sameContent(Cube cube, Cube other);
+
+    /**
+     * Twists a cube in place.
+     *
+     * @param cube
+     *            cube to twist
+     * @param move
+     *            number of the twist, see {@link Cube#getMoveCount()}
+     */
+    void twist(Cube cube, int move) {
+        int rows = cube.getSize() - 1;
+        int row = ((move >> 1) % rows) + 1;
+        boolean direction = (move & 1) == 0;
+
+        switch (move / (2 * rows)) {
+        case 0:
+            twistX(cube, row, direction);
+            break;
+        case 1:
+            twistY(cube, row, direction);
+            break;
+        case 2:
+            twistZ(cube, row, direction);
+            break;
+        default:
+            throw new Error("unknown twist: " + move);
+        }
+    }
+
+    /**
+     * Twists a cube, storing the result in another cube of the same size.
+     * Only the content of the target is set, not its twists or bound.
+     *
+     * @param source
+     *            cube to twist
+     * @param target
+     *            cube to store the result in
+     * @param axis
+     *            axis to turn cube on
+     * @param row
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     */
+    void twist(Cube source, Cube target, Cube.Axis axis, int row,
+            boolean direction) {
+        copy(source, target);
+
+        switch (axis) {
+        case X:
+            twistX(target, row, direction);
+            break;
+        case Y:
+            twistY(target, row, direction);
+            break;
+        case Z:
+            twistZ(target, row, direction);
+            break;
+        default:
+            // should not happen, but you never know :)
+            throw new Error("unknown axis in twist");
+        }
+    }
+
+    /**
+     * Twists the content of a cube on the X-axis.
+     *
+     * @param cube
+     *            cube to twist
+     * @param firstRow
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     */
+    abstract void twistX(Cube cube, int firstRow, boolean direction);
+
+    /**
+     * Twists the content of a cube on the Y-axis.
+     *
+     * @param cube
+     *            cube to twist
+     * @param firstColumn
+     *            first column which to turn ( 0 < column < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     */
+    abstract void twistY(Cube cube, int firstColumn, boolean direction);
+
+    /**
+     * Twists the content of a cube on the Z-axis.
+     *
+     * @param cube
+     *            cube to twist
+     * @param firstRow
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     */
+    abstract void twistZ(Cube cube, int firstRow, boolean direction);
+
+}
@@ -0,0 +1,198 @@
+package rubiks.sequential;
+
+import java.util.Arrays;
+
+/**
+ * Layout storing each element of a cube in a separate byte. Data format is a
+ * single array with all the elements of all sides, side after side. Works for
+ * cubes of any size. Twists are done using the precomputed permutations of a
+ * {@link MoveTable}.
+ *
+ * The hash of a cube can be kept in the cube, and updated by every change
+ * using only the elements which change, see {@link Cube#keepHash()}.
+ *
+ */
+final class FaceletLayout extends CubeLayout {
+
+    private final int size;
+
+    private final MoveTable table;
+
+    FaceletLayout(int size) {
+        super(size);
+        this.size = size;
+        this.table = MoveTable.forSize(size);
+    }
+
+    @Override
+    void init(Cube cube) {
+        cube.data = new byte[table.elements()];
+
+        // init state. side 0 should be white, side 1 is yellow, etc.
+        int area = size * size;
+        for (byte side = 0; side < Cube.SIDES; side++) {
+            for (int element = 0; element < area; element++) {
+                cube.data[(side * area) + element] = side;
+            }
+        }
+    }
+
+    @Override
+    byte get(Cube cube, int side, int element) {
+        return cube.data[(side * size * size) + element];
+    }
+
+    @Override
+    void set(Cube cube, int side, int element, byte color) {
+        int index = (side * size * size) + element;
+        if (cube.hashed) {
+            cube.hash ^= keys[(index << COLOR_BITS) | cube.data[index]]
+                    ^ keys[(index << COLOR_BITS) | color];
+        }
+        cube.data[index] = color;
+    }
+
+    @Override
+    void copy(Cube source, Cube target) {
+        System.arraycopy(source.data, 0, target.data, 0, source.data.length);
+        target.hash = source.hash;
+        target.hashed = source.hashed;
+    }
+
+    @Override
+    int contentLength() {
+        // four elements per int
+        return (table.elements() + 3) / 4;
+    }
+
+    @Override
+    void save(Cube cube, int[] target, int offset) {
+        byte[] data = cube.data;
+
+        for (int i = 0; i < data.length; i += 4) {
+            int word = 0;
+            for (int j = i; j < i + 4 && j < data.length; j++) {
+                word |= data[j] << ((j - i) * 8);
+            }
+            target[offset + (i / 4)] = word;
+        }
+    }
+
+    @Override
+    void load(int[] source, int offset, Cube cube) {
+        byte[] data = cube.data;
+        cube.hashed = false;
+
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (source[offset + (i / 4)] >>> ((i % 4) * 8));
+        }
+    }
+
+    /**
+     * Compares the elements of each side with its first element, stopping at
+     * the first difference. In a search that is almost always within the
+     * first few elements, even for big cubes, so this is cheaper than keeping
+     * count of the elements of the wrong color while twisting, which would
+     * cost every twist a comparison for every element it moves.
+     */
+    @Override
+    boolean isSolved(Cube cube) {
+        byte[] data = cube.data;
+        int area = size * size;
+
+        for (int start = 0; start < data.length; start += area) {
+            // all elements must be the same color as first element
+            byte color = data[start];
+            for (int j = start + 1; j < start + area; j++) {
+                if (data[j] != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the elements through the permutation of the twist, so the cube is
+     * neither written nor twisted back. Most twisted cubes differ within the
+     * first few elements, so this only touches a few of them.
+     */
+    @Override
+    boolean isSolvedAfter(Cube cube, int move) {
+        return table.isSolved(cube.data, move);
+    }
+
+    @Override
+    long solvedAfter(Cube cube) {
+        return table.solved(cube.data);
+    }
+
+    @Override
+    long hash(Cube cube) {
+        if (cube.hashed) {
+            return cube.hash;
+        }
+
+        byte[] data = cube.data;
+        long result = 0;
+        for (int i = 0; i < data.length; i++) {
+            result ^= keys[(i << COLOR_BITS) | data[i]];
+        }
+        return result;
+    }
+
+    @Override
+    void keepHash(Cube cube) {
+        if (!cube.hashed) {
+            cube.hash = hash(cube);
+            cube.hashed = true;
+        }
+    }
+
+    @Override
+    boolean sameContent(Cube cube, Cube other) {
+        return Arrays.equals(cube.data, other.data);
+    }
+
+    @Override
+    void twist(Cube cube, int move) {
+        if (cube.hashed) {
+            // take out the elements which move, and put them back in at
+            // their new places
+            cube.hash ^= table.hash(cube.data, move, keys);
+            table.twist(cube.data, move);
+            cube.hash ^= table.hash(cube.data, move, keys);
+        } else {
+            table.twist(cube.data, move);
+        }
+    }
+
+    @Override
+    void twist(Cube source, Cube target, Cube.Axis axis, int row,
+            boolean direction) {
+        int move = table.index(axis, row, direction);
+        table.twist(source.data, target.data, move);
+
+        target.hashed = source.hashed;
+        if (source.hashed) {
+            target.hash = source.hash ^ table.hash(source.data, move, keys)
+                    ^ table.hash(target.data, move, keys);
+        }
+    }
+
+    @Override
+    void twistX(Cube cube, int firstRow, boolean direction) {
+        twist(cube, table.index(Cube.Axis.X, firstRow, direction));
+    }
+
+    @Override
+    void twistY(Cube cube, int firstColumn, boolean direction) {
+        twist(cube, table.index(Cube.Axis.Y, firstColumn, direction));
+    }
+
+    @Override
+    void twistZ(Cube cube, int firstRow, boolean direction) {
+        twist(cube, table.index(Cube.Axis.Z, firstRow, direction));
+    }
+
+}
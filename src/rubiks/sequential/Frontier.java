@@ -0,0 +1,227 @@
+package rubiks.sequential;
+
+import java.util.Arrays;
+
+/**
+ * Leaves of the search tree of a cube for one bound: the nodes where the
+ * search stopped, either at the bound or cut off by the heuristic. Together
+ * they cover all sequences of twists, so the search for the next bound can
+ * continue from these nodes with {@link Solver#solutions(Cube, Frontier,
+ * Frontier)} instead of walking the tree from the cube again.
+ *
+ * For each node the content of the cube, the depth, and what is needed to
+ * continue the search from there is kept, along with the estimate of the
+ * heuristic if it cut off the search. A node which will be cut off again is
+ * skipped without even loading the cube.
+ *
+ * Nodes are stored in a few arrays, not as objects, which grow up to the
+ * amount of memory given. When a node does not fit, the frontier is full and
+ * cannot be used.
+ *
+ */
+public final class Frontier {
+
+    // initial number of nodes to make room for
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // ints of content per node
+    private final int length;
+
+    // largest number of nodes that fit in the memory given
+    private final int capacity;
+
+    // content of the cube at each node, length ints each
+    private int[] contents;
+
+    // state of the move filter at each node
+    private int[] states;
+
+    // orders of the runs of twists before the run in progress at each node
+    private int[] weights;
+
+    // number of twists to each node
+    private byte[] depths;
+
+    // estimate of the heuristic at each node, or 0 if not known
+    private byte[] estimates;
+
+    // number of nodes added so far
+    private int size = 0;
+
+    private boolean full = false;
+
+    /**
+     * Creates an empty frontier for the search tree of a cube.
+     *
+     * @param cube
+     *            the cube to solve
+     * @param memory
+     *            memory available for the frontier, in bytes
+     */
+    public Frontier(Cube cube, long memory) {
+        length = cube.contentLength();
+
+        long bytes = (length * 4L) + 4 + 4 + 1 + 1;
+        capacity = (int) Math.min(memory / bytes,
+                Integer.MAX_VALUE / length);
+
+        int initial = Math.min(INITIAL_CAPACITY, capacity);
+        contents = new int[initial * length];
+        states = new int[initial];
+        weights = new int[initial];
+        depths = new byte[initial];
+        estimates = new byte[initial];
+    }
+
+    /**
+     * Creates a frontier with only the root of the search tree of a cube: the
+     * cube itself.
+     *
+     * @param cube
+     *            the cube to solve
+     * @param memory
+     *            memory available for the frontier, in bytes
+     * @return the frontier
+     */
+    public static Frontier root(Cube cube, long memory) {
+        Frontier result = new Frontier(cube, memory);
+        result.add(cube, MoveFilter.START, 1, 0);
+        return result;
+    }
+
+    /**
+     * Adds a node, unless the frontier is full.
+     *
+     * @param cube
+     *            cube at the node, twisted to the depth of the node
+     * @param state
+     *            state of the move filter
+     * @param weight
+     *            orders of the runs of twists before the run in progress
+     * @param estimate
+     *            estimate of the heuristic, or 0 if not known
+     * @return false if the frontier is full
+     */
+    boolean add(Cube cube, int state, int weight, int estimate) {
+        if (!makeRoom()) {
+            return false;
+        }
+
+        cube.save(contents, size * length);
+        states[size] = state;
+        weights[size] = weight;
+        depths[size] = (byte) cube.getTwists();
+        estimates[size] = (byte) Math.min(estimate, Byte.MAX_VALUE);
+        size++;
+        return true;
+    }
+
+    /**
+     * Copies a node of another frontier, unless this frontier is full.
+     *
+     * @return false if the frontier is full
+     */
+    boolean add(Frontier other, int node) {
+        if (!makeRoom()) {
+            return false;
+        }
+
+        System.arraycopy(other.contents, node * length, contents, size
+                * length, length);
+        states[size] = other.states[node];
+        weights[size] = other.weights[node];
+        depths[size] = other.depths[node];
+        estimates[size] = other.estimates[node];
+        size++;
+        return true;
+    }
+
+    /**
+     * Grows the arrays if needed to add a node.
+     *
+     * @return false if the frontier is full
+     */
+    private boolean makeRoom() {
+        if (full) {
+            return false;
+        }
+        if (size < states.length) {
+            return true;
+        }
+        if (size == capacity) {
+            full = true;
+            // the nodes are useless now
+            contents = null;
+            states = null;
+            weights = null;
+            depths = null;
+            estimates = null;
+            return false;
+        }
+
+        int newCapacity = (int) Math.min(states.length * 2L, capacity);
+        int[] newContents = new int[newCapacity * length];
+        System.arraycopy(contents, 0, newContents, 0, size * length);
+        contents = newContents;
+        states = Arrays.copyOf(states, newCapacity);
+        weights = Arrays.copyOf(weights, newCapacity);
+        depths = Arrays.copyOf(depths, newCapacity);
+        estimates = Arrays.copyOf(estimates, newCapacity);
+        return true;
+    }
+
+    /**
+     * Sets a cube to the content and depth at a node.
+     */
+    void load(int node, Cube cube) {
+        cube.load(contents, node * length, depths[node]);
+    }
+
+    int getState(int node) {
+        return states[node];
+    }
+
+    int getWeight(int node) {
+        return weights[node];
+    }
+
+    int getDepth(int node) {
+        return depths[node];
+    }
+
+    int getEstimate(int node) {
+        return estimates[node];
+    }
+
+    /**
+     * Returns if a node did not fit in this frontier. A full frontier does not
+     * cover the whole search tree, and cannot be used.
+     *
+     * @return true if this frontier is full
+     */
+    public boolean isFull() {
+        return full;
+    }
+
+    /**
+     * Returns the number of nodes in this frontier.
+     *
+     * @return the number of nodes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the memory used by this frontier.
+     *
+     * @return the memory used, in bytes
+     */
+    public long getMemory() {
+        if (full) {
+            return 0;
+        }
+        return (contents.length * 4L) + (states.length * 10L);
+    }
+
+}
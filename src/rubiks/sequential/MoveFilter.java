@@ -0,0 +1,219 @@
+package rubiks.sequential;
+
+/**
+ * Filter which skips redundant sequences of twists while searching, without
+ * changing the number of solutions found.
+ *
+ * All twists on the same axis commute: twisting X row 1 and then X row 2 has
+ * the same result as twisting X row 2 and then X row 1. Of every run of
+ * consecutive twists on a single axis only one order is therefore searched:
+ * the one with the twists sorted by their number. The other orders are not
+ * searched, but are counted: a solution found with a run of k twists, of which
+ * d twists occur twice, stands for k! / 2^d different solutions.
+ *
+ * Runs containing both a twist and its opposite, or the same twist three
+ * times, are skipped completely. They have the same result as a shorter
+ * sequence of twists, so they can never be part of an optimal solution.
+ *
+ * The filter is a small automaton. Its state is an int, keeping the last
+ * twist done, whether that twist was done twice in a row, and the length and
+ * number of doubles of the current run. {@link #START} is the state before
+ * the first twist.
+ *
+ */
+public final class MoveFilter {
+
+    /**
+     * State of the filter before any twist has been done.
+     */
+    public static final int START = 0;
+
+    /**
+     * Returned by {@link #next(int, int)} for a twist that should be skipped.
+     */
+    public static final int SKIP = -1;
+
+    // kinds of transitions
+
+    private static final byte PRUNE = 0;
+
+    private static final byte NEW_RUN = 1;
+
+    private static final byte EXTEND = 2;
+
+    private static final byte REPEAT = 3;
+
+    // layout of a state: last twist + 1, repeat flag, run length, doubles
+
+    private static final int LAST_MASK = 0xff;
+
+    private static final int REPEATED = 1 << 8;
+
+    private static final int LENGTH_SHIFT = 9;
+
+    private static final int LENGTH_MASK = 0x7f;
+
+    private static final int DOUBLES_SHIFT = 16;
+
+    private final int moves;
+
+    // n! for all possible run lengths
+    private final long[] factorial;
+
+    // kind of transition, indexed by (last twist + 1) * moves + twist
+    private final byte[] transitions;
+
+    // twists not pruned after each last twist + 1, counting a repeat
+    private final int[] allowed;
+
+    /**
+     * Creates a filter for cubes of a given size.
+     *
+     * @param size
+     *            size of the cube
+     */
+    public MoveFilter(int size) {
+        moves = 6 * (size - 1);
+        int movesPerAxis = 2 * (size - 1);
+
+        // a run has each row at most twice
+        factorial = new long[movesPerAxis + 1];
+        factorial[0] = 1;
+        for (int i = 1; i < factorial.length; i++) {
+            factorial[i] = factorial[i - 1] * i;
+        }
+
+        transitions = new byte[(moves + 1) * moves];
+
+        for (int move = 0; move < moves; move++) {
+            transitions[move] = NEW_RUN;
+        }
+
+        for (int last = 0; last < moves; last++) {
+            for (int move = 0; move < moves; move++) {
+                byte kind;
+
+                if (last / movesPerAxis != move / movesPerAxis) {
+                    kind = NEW_RUN;
+                } else if (move == last) {
+                    kind = REPEAT;
+                } else if (move < last || move == (last ^ 1)) {
+                    // out of order, or undoing the last twist
+                    kind = PRUNE;
+                } else {
+                    kind = EXTEND;
+                }
+
+                transitions[((last + 1) * moves) + move] = kind;
+            }
+        }
+
+        allowed = new int[moves + 1];
+        for (int i = 0; i < transitions.length; i++) {
+            if (transitions[i] != PRUNE) {
+                allowed[i / moves]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the state of the filter after doing a twist, or {@link #SKIP}
+     * if the twist should not be searched.
+     *
+     * @param state
+     *            current state of the filter
+     * @param move
+     *            number of the twist (see {@link Cube#getMoveCount()})
+     * @return the new state, or SKIP
+     */
+    public int next(int state, int move) {
+        int length = (state >>> LENGTH_SHIFT) & LENGTH_MASK;
+
+        switch (transitions[((state & LAST_MASK) * moves) + move]) {
+        case NEW_RUN:
+            return (move + 1) | (1 << LENGTH_SHIFT);
+        case EXTEND:
+            // keep the number of doubles
+            return (move + 1) | ((length + 1) << LENGTH_SHIFT)
+                    | ((state >>> DOUBLES_SHIFT) << DOUBLES_SHIFT);
+        case REPEAT:
+            if ((state & REPEATED) != 0) {
+                // three times the same twist
+                return SKIP;
+            }
+            return (move + 1) | REPEATED | ((length + 1) << LENGTH_SHIFT)
+                    | (((state >>> DOUBLES_SHIFT) + 1) << DOUBLES_SHIFT);
+        default:
+            return SKIP;
+        }
+    }
+
+    /**
+     * Returns the number of twists not skipped in a given state, the same as
+     * the number of twists for which {@link #next(int, int)} does not return
+     * {@link #SKIP}.
+     *
+     * @param state
+     *            current state of the filter
+     * @return the number of twists searched
+     */
+    public int children(int state) {
+        int result = allowed[state & LAST_MASK];
+        if ((state & REPEATED) != 0) {
+            // no third time the same twist
+            result--;
+        }
+        return result;
+    }
+
+    /**
+     * Returns if the given state is the first twist of a new run, ending the
+     * run of the state before it.
+     *
+     * @param state
+     *            state of the filter
+     * @return true if the last twist started a new run
+     */
+    public boolean isNewRun(int state) {
+        return ((state >>> LENGTH_SHIFT) & LENGTH_MASK) == 1;
+    }
+
+    /**
+     * Returns the number of orders of the twists in the current run, which
+     * all have the same result.
+     *
+     * @param state
+     *            state of the filter
+     * @return the number of sequences the current run stands for
+     */
+    public int weight(int state) {
+        int length = (state >>> LENGTH_SHIFT) & LENGTH_MASK;
+        int doubles = state >>> DOUBLES_SHIFT;
+
+        return (int) (factorial[length] >> doubles);
+    }
+
+    /**
+     * Returns the state of the filter after doing the twists matching the
+     * twists done so far, such as the twists of a cube turned by a
+     * {@link rubiks.search.Symmetry}. The matching twists must keep twists on
+     * the same axis together, and in the same order apart from opposite
+     * twists, so the filter skips the matching sequences of the ones it
+     * skips.
+     *
+     * @param state
+     *            state of the filter
+     * @param moves
+     *            the matching twist of every twist
+     * @return the state after the matching twists
+     */
+    public int conjugate(int state, int[] moves) {
+        int last = state & LAST_MASK;
+        if (last == 0) {
+            // no twist done yet
+            return state;
+        }
+        return (state & ~LAST_MASK) | (moves[last - 1] + 1);
+    }
+
+}
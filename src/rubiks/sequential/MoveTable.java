@@ -0,0 +1,405 @@
+package rubiks.sequential;
+
+/**
+ * Precomputed twists for cubes of a single size. The elements of all sides of
+ * a cube are numbered 0 .. 6 * size * size (side * size * size + row * size +
+ * column), and every possible twist is stored as a permutation of these
+ * numbers. Twisting a cube stored in a single flat array of elements then
+ * boils down to a single loop over one of these tables, instead of computing
+ * the position of each element again for every twist.
+ *
+ * Twists are numbered in the order in which {@link Cube#generateChildren}
+ * creates them: for each axis, for each row, first the positive and then the
+ * negative direction.
+ *
+ */
+final class MoveTable {
+
+    // tables created so far, indexed by cube size
+    private static MoveTable[] tables = new MoveTable[0];
+
+    /**
+     * Returns the table for cubes of a given size. Tables are created on first
+     * use, and shared afterwards.
+     *
+     * @param size
+     *            size of the cube
+     * @return the table for cubes of this size
+     */
+    static synchronized MoveTable forSize(int size) {
+        if (size >= tables.length) {
+            MoveTable[] newTables = new MoveTable[size + 1];
+            System.arraycopy(tables, 0, newTables, 0, tables.length);
+            tables = newTables;
+        }
+
+        if (tables[size] == null) {
+            tables[size] = new MoveTable(size);
+        }
+        return tables[size];
+    }
+
+    private final int size;
+
+    // number of elements on one side
+    private final int area;
+
+    // number of elements of the whole cube
+    private final int elements;
+
+    // number of possible twists
+    private final int moves;
+
+    /*
+     * for each twist the element each element gets its new value from:
+     * twisted[i] = original[sources[move][i]]
+     */
+    private final int[][] sources;
+
+    /*
+     * for each twist all elements which move, as cycles of four elements a, b,
+     * c, d with a <- b <- c <- d <- a. Used to twist a cube in place.
+     */
+    private final int[][] cycles;
+
+    /*
+     * for each twist the elements the first two elements of the cube get
+     * their new value from: sources[move][0] and sources[move][1], indexed by
+     * twist so all twists can be checked in a single loop
+     */
+    private final int[] firstSources;
+
+    private final int[] secondSources;
+
+    private MoveTable(int size) {
+        if (size < 2) {
+            throw new Error("cube size must be at least 2, got " + size);
+        }
+
+        this.size = size;
+        this.area = size * size;
+        this.elements = Cube.SIDES * area;
+        this.moves = 6 * (size - 1);
+
+        sources = new int[moves][];
+        cycles = new int[moves][];
+
+        for (Cube.Axis axis : Cube.Axis.values()) {
+            for (int row = 1; row < size; row++) {
+                createMove(axis, row, true);
+                createMove(axis, row, false);
+            }
+        }
+
+        firstSources = new int[moves];
+        secondSources = new int[moves];
+        for (int move = 0; move < moves; move++) {
+            firstSources[move] = sources[move][0];
+            secondSources[move] = sources[move][1];
+        }
+    }
+
+    /**
+     * Returns the index of a twist in this table.
+     *
+     * @param axis
+     *            axis to turn cube on
+     * @param row
+     *            first row which to turn ( 0 < row < size )
+     * @param direction
+     *            direction to turn, either positive or negative
+     * @return index of the twist
+     */
+    int index(Cube.Axis axis, int row, boolean direction) {
+        return (((axis.ordinal() * (size - 1)) + row - 1) * 2)
+                + (direction ? 0 : 1);
+    }
+
+    /**
+     * Returns the number of possible twists of a cube of this size.
+     *
+     * @return the number of possible twists
+     */
+    int moves() {
+        return moves;
+    }
+
+    /**
+     * Returns the number of elements of a cube of this size.
+     *
+     * @return the number of elements of a cube
+     */
+    int elements() {
+        return elements;
+    }
+
+    /**
+     * Twists a cube in place.
+     *
+     * @param data
+     *            all elements of the cube
+     * @param move
+     *            index of the twist
+     */
+    void twist(byte[] data, int move) {
+        int[] cycle = cycles[move];
+
+        for (int i = 0; i < cycle.length; i += 4) {
+            byte tmp = data[cycle[i]];
+            data[cycle[i]] = data[cycle[i + 1]];
+            data[cycle[i + 1]] = data[cycle[i + 2]];
+            data[cycle[i + 2]] = data[cycle[i + 3]];
+            data[cycle[i + 3]] = tmp;
+        }
+    }
+
+    /**
+     * Returns if a cube would be solved after a twist, without twisting it:
+     * the elements of the twisted cube are read from where the twist would
+     * take them from. Stops at the first element of a different color.
+     *
+     * @param data
+     *            all elements of the cube
+     * @param move
+     *            index of the twist
+     * @return true if the twisted cube is solved
+     */
+    boolean isSolved(byte[] data, int move) {
+        int[] from = sources[move];
+
+        for (int start = 0; start < elements; start += area) {
+            // all elements must be the same color as first element
+            byte color = data[from[start]];
+            for (int i = start + 1; i < start + area; i++) {
+                if (data[from[i]] != color) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns which twists would solve a cube, for at most 64 twists. First
+     * the first two elements of the twisted cubes are compared for all twists
+     * in one loop without branches. Only for the few twists after which these
+     * are the same color the whole twisted cube is checked.
+     *
+     * @param data
+     *            all elements of the cube
+     * @return a mask with bit m set if the cube is solved after twist m
+     */
+    long solved(byte[] data) {
+        long candidates = 0;
+        for (int move = 0; move < moves; move++) {
+            long same = data[firstSources[move]] == data[secondSources[move]]
+                    ? 1 : 0;
+            candidates |= same << move;
+        }
+
+        long result = 0;
+        for (long left = candidates; left != 0; left &= left - 1) {
+            int move = Long.numberOfTrailingZeros(left);
+            if (isSolved(data, move)) {
+                result |= 1L << move;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the Zobrist hash of only the elements moved by a twist.
+     *
+     * @param data
+     *            all elements of the cube
+     * @param move
+     *            index of the twist
+     * @param keys
+     *            random number for each color of each element, see
+     *            {@link CubeLayout}
+     * @return the xor of the random numbers of the moved elements
+     */
+    long hash(byte[] data, int move, long[] keys) {
+        int[] cycle = cycles[move];
+        long result = 0;
+
+        for (int i = 0; i < cycle.length; i++) {
+            int element = cycle[i];
+            result ^= keys[(element << CubeLayout.COLOR_BITS)
+                    | data[element]];
+        }
+        return result;
+    }
+
+    /**
+     * Twists a cube, storing the result in another cube.
+     *
+     * @param source
+     *            all elements of the original cube
+     * @param target
+     *            all elements of the resulting cube
+     * @param move
+     *            index of the twist
+     */
+    void twist(byte[] source, byte[] target, int move) {
+        int[] from = sources[move];
+
+        for (int i = 0; i < elements; i++) {
+            target[i] = source[from[i]];
+        }
+    }
+
+    // *** Table construction. Twists below are only done once per table ***\\
+
+    /**
+     * Computes the tables for a single twist by twisting a cube in which every
+     * element contains its own number.
+     */
+    private void createMove(Cube.Axis axis, int row, boolean direction) {
+        int move = index(axis, row, direction);
+
+        int[] from = new int[elements];
+        for (int i = 0; i < elements; i++) {
+            from[i] = i;
+        }
+
+        switch (axis) {
+        case X:
+            twistX(from, row, direction);
+            break;
+        case Y:
+            twistY(from, row, direction);
+            break;
+        case Z:
+            twistZ(from, row, direction);
+            break;
+        default:
+            // should not happen, but you never know :)
+            throw new Error("unknown axis in twist");
+        }
+
+        int moved = 0;
+        for (int i = 0; i < elements; i++) {
+            if (from[i] != i) {
+                moved++;
+            }
+        }
+
+        int[] cycle = new int[moved];
+        boolean[] done = new boolean[elements];
+        int next = 0;
+
+        for (int i = 0; i < elements; i++) {
+            if (from[i] == i || done[i]) {
+                continue;
+            }
+
+            int element = i;
+            for (int j = 0; j < 4; j++) {
+                cycle[next++] = element;
+                done[element] = true;
+                element = from[element];
+            }
+            if (element != i) {
+                throw new Error("twist " + move + " is not a quarter turn");
+            }
+        }
+
+        sources[move] = from;
+        cycles[move] = cycle;
+    }
+
+    private int index(int side, int row, int column) {
+        return (side * area) + (row * size) + column;
+    }
+
+    private int inverse(int value) {
+        return size - 1 - value;
+    }
+
+    /**
+     * Gives element a the value of b, b the value of c, c the value of d, and
+     * d the original value of a.
+     */
+    private static void cycle(int[] data, int a, int b, int c, int d) {
+        int tmp = data[a];
+        data[a] = data[b];
+        data[b] = data[c];
+        data[c] = data[d];
+        data[d] = tmp;
+    }
+
+    private void rotate(int[] data, int side, boolean direction) {
+        int[] result = new int[area];
+
+        for (int row = 0; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                if (direction) {
+                    result[(column * size) + inverse(row)] = data[index(side,
+                            row, column)];
+                } else {
+                    result[(row * size) + column] = data[index(side, column,
+                            inverse(row))];
+                }
+            }
+        }
+
+        System.arraycopy(result, 0, data, side * area, area);
+    }
+
+    private void twistX(int[] data, int firstRow, boolean direction) {
+        for (int row = firstRow; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int left = index(Cube.LEFT, row, column);
+                int front = index(Cube.FRONT, row, column);
+                int right = index(Cube.RIGHT, row, column);
+                int back = index(Cube.BACK, row, column);
+
+                if (direction) {
+                    cycle(data, back, right, front, left);
+                } else {
+                    cycle(data, left, front, right, back);
+                }
+            }
+        }
+        rotate(data, Cube.BOTTOM, direction);
+    }
+
+    private void twistY(int[] data, int firstColumn, boolean direction) {
+        for (int row = 0; row < size; row++) {
+            for (int column = firstColumn; column < size; column++) {
+                int top = index(Cube.TOP, row, column);
+                int front = index(Cube.FRONT, row, column);
+                int bottom = index(Cube.BOTTOM, row, column);
+                // back is "mirrored"
+                int back = index(Cube.BACK, inverse(row), inverse(column));
+
+                if (direction) {
+                    cycle(data, top, front, bottom, back);
+                } else {
+                    cycle(data, top, back, bottom, front);
+                }
+            }
+        }
+        rotate(data, Cube.RIGHT, direction);
+    }
+
+    private void twistZ(int[] data, int firstRow, boolean direction) {
+        for (int row = firstRow; row < size; row++) {
+            for (int column = 0; column < size; column++) {
+                int top = index(Cube.TOP, inverse(row), column);
+                int right = index(Cube.RIGHT, column, row);
+                int bottom = index(Cube.BOTTOM, row, inverse(column));
+                int left = index(Cube.LEFT, inverse(column), inverse(row));
+
+                if (direction) {
+                    cycle(data, top, left, bottom, right);
+                } else {
+                    cycle(data, top, right, bottom, left);
+                }
+            }
+        }
+        rotate(data, Cube.BACK, !direction);
+    }
+
+}
@@ -0,0 +1,300 @@
+package rubiks.sequential;
+
+import java.util.Arrays;
+
+/**
+ * Packed layout for standard (3x3x3) cubes. All nine elements of a side are
+ * stored in a single int, using 3 bits per element (element i in bits 3i up
+ * to 3i + 2). Twists are done with masks and shifts on these six ints, and
+ * do not allocate any memory.
+ *
+ * Octal constants are used throughout, as each octal digit is exactly one
+ * element.
+ *
+ * The hash of a cube is looked up three elements at a time, from tables with
+ * the xor of the random numbers of every combination of their colors. That
+ * is 18 lookups for a whole cube, fewer than updating the hash of the five
+ * sides changed by a twist, so it is never kept up to date while twisting.
+ *
+ */
+final class PackedLayout extends CubeLayout {
+
+    static final int SIZE = 3;
+
+    // all elements of a side in use
+    private static final int ALL = 0777777777;
+
+    // value of a side with all elements set to color 1
+    private static final int UNIFORM = 0111111111;
+
+    // elements in rows "index" up to and including the last row
+    private static final int[] ROWS_FROM = { ALL, 0777777000, 0777000000 };
+
+    // elements in columns "index" up to and including the last column
+    private static final int[] COLUMNS_FROM = { ALL, 0770770770, 0700700700 };
+
+    // elements in the first row up to and including row "last - index"
+    private static final int[] ROWS_UNTIL = { ALL, 0000777777, 0000000777 };
+
+    // elements in the first column up to and including column "last - index"
+    private static final int[] COLUMNS_UNTIL = { ALL, 0077077077, 0007007007 };
+
+    // elements per part of a side looked up at once when hashing
+    private static final int PART = 3;
+
+    private static final int PART_BITS = PART * COLOR_BITS;
+
+    private static final int PARTS = (SIZE * SIZE) / PART;
+
+    // hash of every content of each part of every side, indexed by
+    // [side * PARTS + part][content]
+    private final long[][] partKeys;
+
+    PackedLayout() {
+        super(SIZE);
+
+        partKeys = new long[Cube.SIDES * PARTS][1 << PART_BITS];
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            for (int part = 0; part < PARTS; part++) {
+                long[] table = partKeys[(side * PARTS) + part];
+                for (int content = 0; content < table.length; content++) {
+                    for (int i = 0; i < PART; i++) {
+                        int element = (side * SIZE * SIZE) + (part * PART)
+                                + i;
+                        int color = (content >>> (i * COLOR_BITS)) & 07;
+                        table[content] ^= keys[(element << COLOR_BITS)
+                                | color];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void init(Cube cube) {
+        cube.faces = new int[Cube.SIDES];
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            cube.faces[side] = side * UNIFORM;
+        }
+    }
+
+    @Override
+    byte get(Cube cube, int side, int element) {
+        return (byte) ((cube.faces[side] >>> (3 * element)) & 07);
+    }
+
+    @Override
+    void set(Cube cube, int side, int element, byte color) {
+        int shift = 3 * element;
+        cube.faces[side] = (cube.faces[side] & ~(07 << shift))
+                | (color << shift);
+    }
+
+    @Override
+    void copy(Cube source, Cube target) {
+        System.arraycopy(source.faces, 0, target.faces, 0, Cube.SIDES);
+    }
+
+    @Override
+    int contentLength() {
+        return Cube.SIDES;
+    }
+
+    @Override
+    void save(Cube cube, int[] target, int offset) {
+        System.arraycopy(cube.faces, 0, target, offset, Cube.SIDES);
+    }
+
+    @Override
+    void load(int[] source, int offset, Cube cube) {
+        System.arraycopy(source, offset, cube.faces, 0, Cube.SIDES);
+    }
+
+    @Override
+    boolean isSolved(Cube cube) {
+        int[] faces = cube.faces;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            // all elements must be the same color as first element
+            int face = faces[side];
+            if (face != (face & 07) * UNIFORM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    long hash(Cube cube) {
+        int[] faces = cube.faces;
+        long result = 0;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            int face = faces[side];
+            int part = side * PARTS;
+            result ^= partKeys[part][face & 0777]
+                    ^ partKeys[part + 1][(face >>> PART_BITS) & 0777]
+                    ^ partKeys[part + 2][face >>> (2 * PART_BITS)];
+        }
+        return result;
+    }
+
+    @Override
+    boolean sameContent(Cube cube, Cube other) {
+        return Arrays.equals(cube.faces, other.faces);
+    }
+
+    /**
+     * Rotates a side clockwise: the element at (row, column) moves to (column,
+     * last - row).
+     */
+    private static int clockwise(int face) {
+        return ((face >>> 18) & 07) | ((face >>> 12) & 07000)
+                | ((face >>> 6) & 07000070) | (face & 070000)
+                | ((face & 0700007) << 6) | ((face & 070) << 12)
+                | ((face & 0700) << 18);
+    }
+
+    /**
+     * Rotates a side counter clockwise: the element at (row, column) moves to
+     * (last - column, row).
+     */
+    private static int counterClockwise(int face) {
+        return ((face >>> 18) & 0700) | ((face >>> 12) & 070)
+                | ((face >>> 6) & 0700007) | (face & 070000)
+                | ((face & 07000070) << 6) | ((face & 07000) << 12)
+                | ((face & 07) << 18);
+    }
+
+    /**
+     * Rotates a side half a turn: element i moves to 8 - i. This is also how
+     * the back side is "mirrored" with respect to the other sides.
+     */
+    private static int half(int face) {
+        return ((face >>> 24) & 07) | ((face >>> 18) & 070)
+                | ((face >>> 12) & 0700) | ((face >>> 6) & 07000)
+                | (face & 070000) | ((face & 07000) << 6)
+                | ((face & 0700) << 12) | ((face & 070) << 18)
+                | ((face & 07) << 24);
+    }
+
+    private static int rotate(int face, boolean direction) {
+        return direction ? clockwise(face) : counterClockwise(face);
+    }
+
+    @Override
+    void twist(Cube cube, int move) {
+        // two rows per axis, two directions per row
+        int row = ((move >> 1) & 1) + 1;
+        boolean direction = (move & 1) == 0;
+
+        switch (move >> 2) {
+        case 0:
+            twistX(cube, row, direction);
+            break;
+        case 1:
+            twistY(cube, row, direction);
+            break;
+        case 2:
+            twistZ(cube, row, direction);
+            break;
+        default:
+            throw new Error("unknown twist: " + move);
+        }
+    }
+
+    @Override
+    void twistX(Cube cube, int firstRow, boolean direction) {
+        int[] faces = cube.faces;
+        int mask = ROWS_FROM[firstRow];
+        int keep = ~mask;
+
+        int left = faces[Cube.LEFT];
+        int front = faces[Cube.FRONT];
+        int right = faces[Cube.RIGHT];
+        int back = faces[Cube.BACK];
+
+        if (direction) {
+            faces[Cube.BACK] = (back & keep) | (right & mask);
+            faces[Cube.RIGHT] = (right & keep) | (front & mask);
+            faces[Cube.FRONT] = (front & keep) | (left & mask);
+            faces[Cube.LEFT] = (left & keep) | (back & mask);
+        } else {
+            faces[Cube.LEFT] = (left & keep) | (front & mask);
+            faces[Cube.FRONT] = (front & keep) | (right & mask);
+            faces[Cube.RIGHT] = (right & keep) | (back & mask);
+            faces[Cube.BACK] = (back & keep) | (left & mask);
+        }
+
+        faces[Cube.BOTTOM] = rotate(faces[Cube.BOTTOM], direction);
+    }
+
+    @Override
+    void twistY(Cube cube, int firstColumn, boolean direction) {
+        int[] faces = cube.faces;
+        int mask = COLUMNS_FROM[firstColumn];
+        int keep = ~mask;
+        // back is "mirrored"
+        int backKeep = ~COLUMNS_UNTIL[firstColumn];
+
+        int top = faces[Cube.TOP];
+        int front = faces[Cube.FRONT];
+        int bottom = faces[Cube.BOTTOM];
+        int back = faces[Cube.BACK];
+
+        if (direction) {
+            faces[Cube.TOP] = (top & keep) | (front & mask);
+            faces[Cube.FRONT] = (front & keep) | (bottom & mask);
+            faces[Cube.BOTTOM] = (bottom & keep) | (half(back) & mask);
+            faces[Cube.BACK] = (back & backKeep) | half(top & mask);
+        } else {
+            faces[Cube.TOP] = (top & keep) | (half(back) & mask);
+            faces[Cube.BACK] = (back & backKeep) | half(bottom & mask);
+            faces[Cube.BOTTOM] = (bottom & keep) | (front & mask);
+            faces[Cube.FRONT] = (front & keep) | (top & mask);
+        }
+
+        faces[Cube.RIGHT] = rotate(faces[Cube.RIGHT], direction);
+    }
+
+    @Override
+    void twistZ(Cube cube, int firstRow, boolean direction) {
+        int[] faces = cube.faces;
+
+        // parts of each side moved, as seen from that side
+        int topMask = ROWS_UNTIL[firstRow];
+        int rightMask = COLUMNS_FROM[firstRow];
+        int bottomMask = ROWS_FROM[firstRow];
+        int leftMask = COLUMNS_UNTIL[firstRow];
+
+        int top = faces[Cube.TOP];
+        int left = faces[Cube.LEFT];
+        int bottom = faces[Cube.BOTTOM];
+        int right = faces[Cube.RIGHT];
+
+        // moving from one side to the next turns elements a quarter
+        if (direction) {
+            faces[Cube.TOP] = (top & ~topMask) | (clockwise(left) & topMask);
+            faces[Cube.LEFT] = (left & ~leftMask)
+                    | (clockwise(bottom) & leftMask);
+            faces[Cube.BOTTOM] = (bottom & ~bottomMask)
+                    | (clockwise(right) & bottomMask);
+            faces[Cube.RIGHT] = (right & ~rightMask)
+                    | (clockwise(top) & rightMask);
+        } else {
+            faces[Cube.TOP] = (top & ~topMask)
+                    | (counterClockwise(right) & topMask);
+            faces[Cube.RIGHT] = (right & ~rightMask)
+                    | (counterClockwise(bottom) & rightMask);
+            faces[Cube.BOTTOM] = (bottom & ~bottomMask)
+                    | (counterClockwise(left) & bottomMask);
+            faces[Cube.LEFT] = (left & ~leftMask)
+                    | (counterClockwise(top) & leftMask);
+        }
+
+        faces[Cube.BACK] = rotate(faces[Cube.BACK], !direction);
+    }
+
+}
@@ -0,0 +1,144 @@
+package rubiks.sequential;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import rubiks.search.Heuristic;
+
+/**
+ * Multi-threaded version of {@link Solver}, for shared memory machines.
+ *
+ * The search tree is split at a fixed depth into subtrees. Worker threads take
+ * subtrees from a shared list until none are left, and search them with a
+ * solver, heuristic and copy of the cube of their own. As subtrees are small
+ * and taken one at a time, threads finishing early simply take more of them.
+ * The number of solutions is the sum over all subtrees, the same number as
+ * found by a single solver.
+ *
+ */
+public class ParallelSolver {
+
+    // one solver per thread, the first also splits the tree
+    private final Solver[] solvers;
+
+    private final int splitDepth;
+
+    /**
+     * Creates a parallel solver for cubes of a given size. Uses one thread
+     * for each heuristic given.
+     *
+     * @param size
+     *            size of the cubes to solve
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristics
+     *            estimate used to cut off the search by each thread, or null
+     *            values to search up to the bound. Thread safe heuristics may
+     *            be given more than once.
+     * @param splitDepth
+     *            depth at which the search tree is split into subtrees
+     * @param symmetry
+     *            if true, subtrees with symmetric roots are searched only
+     *            once
+     * @param table
+     *            table of nodes searched before, shared by all threads, or
+     *            null
+     */
+    public ParallelSolver(int size, boolean pruning, Heuristic[] heuristics,
+            int splitDepth, boolean symmetry, TranspositionTable table) {
+        this.splitDepth = splitDepth;
+
+        solvers = new Solver[heuristics.length];
+        solvers[0] = new Solver(size, pruning, heuristics[0],
+                symmetry ? splitDepth : 0, table);
+        for (int i = 1; i < solvers.length; i++) {
+            solvers[i] = new Solver(size, pruning, heuristics[i], 0, table);
+        }
+    }
+
+    /**
+     * Finds all solutions for a given cube. Only searches to the bound set in
+     * the cube object. The cube is twisted while searching, but is back in its
+     * original state when this function returns.
+     *
+     * @param cube
+     *            cube to solve
+     * @return the number of solutions found
+     */
+    public int solutions(final Cube cube) {
+        final List<Subtree> subtrees = new ArrayList<Subtree>();
+        int result = solvers[0].split(cube, splitDepth, subtrees);
+
+        // solutions found by all threads, and next subtree to search
+        final AtomicInteger found = new AtomicInteger(result);
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        Thread[] workers = new Thread[solvers.length];
+        for (int i = 0; i < workers.length; i++) {
+            final Solver solver = solvers[i];
+            workers[i] = new Thread("solver " + i) {
+                public void run() {
+                    try {
+                        found.addAndGet(search(new Cube(cube), solver,
+                                subtrees, next));
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            };
+            workers[i].start();
+        }
+
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                throw new Error("interrupted while solving", e);
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new Error("solver thread failed", failure.get());
+        }
+
+        return found.get();
+    }
+
+    /**
+     * Adds the nodes searched by all threads since the last call to the
+     * statistics of the current bound. Should not be called while searching.
+     *
+     * @param statistics
+     *            statistics to add to
+     */
+    public void collect(SearchStatistics statistics) {
+        for (Solver solver : solvers) {
+            solver.collect(statistics);
+        }
+    }
+
+    /**
+     * Searches subtrees until none are left. Run by every thread.
+     *
+     * @return the number of solutions found
+     */
+    private static int search(Cube cube, Solver solver,
+            List<Subtree> subtrees, AtomicInteger next) {
+        int result = 0;
+
+        for (int i = next.getAndIncrement(); i < subtrees.size(); i = next
+                .getAndIncrement()) {
+            Subtree subtree = subtrees.get(i);
+
+            subtree.apply(cube);
+            result += solver.solutions(cube, subtree);
+            subtree.undo(cube);
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,273 @@
+package rubiks.sequential;
+
+import java.util.Arrays;
+
+/**
+ * Packed layout for 2x2x2 ("pocket") cubes, the same as {@link PackedLayout}
+ * but with four elements per side: element i in bits 3i up to 3i + 2 of the
+ * int of its side. Only row 1 of each axis can be twisted, so every twist is
+ * a fixed set of masks and shifts.
+ *
+ * The hash of a cube is looked up two elements at a time, 12 lookups for a
+ * whole cube.
+ *
+ */
+final class PocketLayout extends CubeLayout {
+
+    static final int SIZE = 2;
+
+    // value of a side with all elements set to color 1
+    private static final int UNIFORM = 01111;
+
+    // elements moved by a twist on each side, as seen from that side
+
+    private static final int ROW_1 = 07700;
+
+    private static final int COLUMN_1 = 07070;
+
+    private static final int ROW_0 = 00077;
+
+    private static final int COLUMN_0 = 00707;
+
+    // elements per part of a side looked up at once when hashing
+    private static final int PART = 2;
+
+    private static final int PART_BITS = PART * COLOR_BITS;
+
+    private static final int PARTS = (SIZE * SIZE) / PART;
+
+    // hash of every content of each part of every side, indexed by
+    // [side * PARTS + part][content]
+    private final long[][] partKeys;
+
+    PocketLayout() {
+        super(SIZE);
+
+        partKeys = new long[Cube.SIDES * PARTS][1 << PART_BITS];
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            for (int part = 0; part < PARTS; part++) {
+                long[] table = partKeys[(side * PARTS) + part];
+                for (int content = 0; content < table.length; content++) {
+                    for (int i = 0; i < PART; i++) {
+                        int element = (side * SIZE * SIZE) + (part * PART)
+                                + i;
+                        int color = (content >>> (i * COLOR_BITS)) & 07;
+                        table[content] ^= keys[(element << COLOR_BITS)
+                                | color];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    void init(Cube cube) {
+        cube.faces = new int[Cube.SIDES];
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            cube.faces[side] = side * UNIFORM;
+        }
+    }
+
+    @Override
+    byte get(Cube cube, int side, int element) {
+        return (byte) ((cube.faces[side] >>> (3 * element)) & 07);
+    }
+
+    @Override
+    void set(Cube cube, int side, int element, byte color) {
+        int shift = 3 * element;
+        cube.faces[side] = (cube.faces[side] & ~(07 << shift))
+                | (color << shift);
+    }
+
+    @Override
+    void copy(Cube source, Cube target) {
+        System.arraycopy(source.faces, 0, target.faces, 0, Cube.SIDES);
+    }
+
+    @Override
+    int contentLength() {
+        return Cube.SIDES;
+    }
+
+    @Override
+    void save(Cube cube, int[] target, int offset) {
+        System.arraycopy(cube.faces, 0, target, offset, Cube.SIDES);
+    }
+
+    @Override
+    void load(int[] source, int offset, Cube cube) {
+        System.arraycopy(source, offset, cube.faces, 0, Cube.SIDES);
+    }
+
+    @Override
+    boolean isSolved(Cube cube) {
+        int[] faces = cube.faces;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            // all elements must be the same color as first element
+            int face = faces[side];
+            if (face != (face & 07) * UNIFORM) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    long hash(Cube cube) {
+        int[] faces = cube.faces;
+        long result = 0;
+
+        for (int side = 0; side < Cube.SIDES; side++) {
+            int face = faces[side];
+            int part = side * PARTS;
+            result ^= partKeys[part][face & 077]
+                    ^ partKeys[part + 1][face >>> PART_BITS];
+        }
+        return result;
+    }
+
+    @Override
+    boolean sameContent(Cube cube, Cube other) {
+        return Arrays.equals(cube.faces, other.faces);
+    }
+
+    /**
+     * Rotates a side clockwise: the element at (row, column) moves to (column,
+     * 1 - row).
+     */
+    private static int clockwise(int face) {
+        return ((face >>> 6) & 07) | ((face & 07) << 3)
+                | ((face >>> 3) & 0700) | ((face & 070) << 6);
+    }
+
+    /**
+     * Rotates a side counter clockwise: the element at (row, column) moves to
+     * (1 - column, row).
+     */
+    private static int counterClockwise(int face) {
+        return ((face >>> 3) & 07) | ((face >>> 6) & 070)
+                | ((face & 07) << 6) | ((face & 0700) << 3);
+    }
+
+    /**
+     * Rotates a side half a turn: element i moves to 3 - i. This is also how
+     * the back side is "mirrored" with respect to the other sides.
+     */
+    private static int half(int face) {
+        return ((face >>> 9) & 07) | ((face >>> 3) & 070)
+                | ((face & 070) << 3) | ((face & 07) << 9);
+    }
+
+    private static int rotate(int face, boolean direction) {
+        return direction ? clockwise(face) : counterClockwise(face);
+    }
+
+    @Override
+    void twist(Cube cube, int move) {
+        // a single row per axis, two directions per row
+        boolean direction = (move & 1) == 0;
+
+        switch (move >> 1) {
+        case 0:
+            twistX(cube, 1, direction);
+            break;
+        case 1:
+            twistY(cube, 1, direction);
+            break;
+        case 2:
+            twistZ(cube, 1, direction);
+            break;
+        default:
+            throw new Error("unknown twist: " + move);
+        }
+    }
+
+    @Override
+    void twistX(Cube cube, int firstRow, boolean direction) {
+        int[] faces = cube.faces;
+        int keep = ~ROW_1;
+
+        int left = faces[Cube.LEFT];
+        int front = faces[Cube.FRONT];
+        int right = faces[Cube.RIGHT];
+        int back = faces[Cube.BACK];
+
+        if (direction) {
+            faces[Cube.BACK] = (back & keep) | (right & ROW_1);
+            faces[Cube.RIGHT] = (right & keep) | (front & ROW_1);
+            faces[Cube.FRONT] = (front & keep) | (left & ROW_1);
+            faces[Cube.LEFT] = (left & keep) | (back & ROW_1);
+        } else {
+            faces[Cube.LEFT] = (left & keep) | (front & ROW_1);
+            faces[Cube.FRONT] = (front & keep) | (right & ROW_1);
+            faces[Cube.RIGHT] = (right & keep) | (back & ROW_1);
+            faces[Cube.BACK] = (back & keep) | (left & ROW_1);
+        }
+
+        faces[Cube.BOTTOM] = rotate(faces[Cube.BOTTOM], direction);
+    }
+
+    @Override
+    void twistY(Cube cube, int firstColumn, boolean direction) {
+        int[] faces = cube.faces;
+        int keep = ~COLUMN_1;
+        // back is "mirrored"
+        int backKeep = ~COLUMN_0;
+
+        int top = faces[Cube.TOP];
+        int front = faces[Cube.FRONT];
+        int bottom = faces[Cube.BOTTOM];
+        int back = faces[Cube.BACK];
+
+        if (direction) {
+            faces[Cube.TOP] = (top & keep) | (front & COLUMN_1);
+            faces[Cube.FRONT] = (front & keep) | (bottom & COLUMN_1);
+            faces[Cube.BOTTOM] = (bottom & keep) | (half(back) & COLUMN_1);
+            faces[Cube.BACK] = (back & backKeep) | half(top & COLUMN_1);
+        } else {
+            faces[Cube.TOP] = (top & keep) | (half(back) & COLUMN_1);
+            faces[Cube.BACK] = (back & backKeep) | half(bottom & COLUMN_1);
+            faces[Cube.BOTTOM] = (bottom & keep) | (front & COLUMN_1);
+            faces[Cube.FRONT] = (front & keep) | (top & COLUMN_1);
+        }
+
+        faces[Cube.RIGHT] = rotate(faces[Cube.RIGHT], direction);
+    }
+
+    @Override
+    void twistZ(Cube cube, int firstRow, boolean direction) {
+        int[] faces = cube.faces;
+
+        int top = faces[Cube.TOP];
+        int left = faces[Cube.LEFT];
+        int bottom = faces[Cube.BOTTOM];
+        int right = faces[Cube.RIGHT];
+
+        // moving from one side to the next turns elements a quarter
+        if (direction) {
+            faces[Cube.TOP] = (top & ~ROW_0) | (clockwise(left) & ROW_0);
+            faces[Cube.LEFT] = (left & ~COLUMN_0)
+                    | (clockwise(bottom) & COLUMN_0);
+            faces[Cube.BOTTOM] = (bottom & ~ROW_1)
+                    | (clockwise(right) & ROW_1);
+            faces[Cube.RIGHT] = (right & ~COLUMN_1)
+                    | (clockwise(top) & COLUMN_1);
+        } else {
+            faces[Cube.TOP] = (top & ~ROW_0)
+                    | (counterClockwise(right) & ROW_0);
+            faces[Cube.RIGHT] = (right & ~COLUMN_1)
+                    | (counterClockwise(bottom) & COLUMN_1);
+            faces[Cube.BOTTOM] = (bottom & ~ROW_1)
+                    | (counterClockwise(left) & ROW_1);
+            faces[Cube.LEFT] = (left & ~COLUMN_0)
+                    | (counterClockwise(top) & COLUMN_0);
+        }
+
+        faces[Cube.BACK] = rotate(faces[Cube.BACK], !direction);
+    }
+
+}
@@ -0,0 +1,492 @@
+package rubiks.sequential;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import rubiks.search.Symmetry;
+
+/**
+ * Results of cubes solved before, kept in a file so they survive restarts:
+ * the number of twists of the shortest solutions, and the number of these
+ * solutions. Cubes which are turned versions of each other (see
+ * {@link Symmetry}) have the same result, so a cube is stored as its
+ * canonical conjugate, with 4 bits per element.
+ *
+ * The file is only ever appended to. Each record is the size of the cube,
+ * the result, the stored cube and a checksum. The file is read through a
+ * read-only memory mapping, and the position of every record is kept in a
+ * hash table in a few primitive arrays.
+ *
+ * Any number of processes can use the same file. Records are appended while
+ * holding a lock on the file. Others find them when they look for a cube
+ * which they do not know, by reading the records added since they last
+ * looked. A record which is still being written fails its checksum, and is
+ * read again later. Only one cache per file should be opened in a single
+ * process.
+ *
+ * When the file would grow beyond its maximum size, it is replaced by a new
+ * file with only the newest records, taking up half the maximum. Other
+ * processes notice the file was replaced, and read the new file instead.
+ *
+ */
+public final class ResultCache {
+
+    // start of the file: magic number and version of the format
+    private static final int MAGIC = 0x52554243;
+
+    private static final int VERSION = 1;
+
+    private static final int HEADER_BYTES = 8;
+
+    // fields of a record, by offset: length of the stored cube, size, bound,
+    // number of solutions, stored cube, and a checksum of all before it
+
+    private static final int SIZE_OFFSET = 4;
+
+    private static final int BOUND_OFFSET = 5;
+
+    private static final int COUNT_OFFSET = 6;
+
+    private static final int DATA_OFFSET = 10;
+
+    // bytes of a record besides the stored cube
+    private static final int RECORD_BYTES = DATA_OFFSET + 4;
+
+    // initial number of slots of the index
+    private static final int INDEX_CAPACITY = 1 << 10;
+
+    /**
+     * Result of a cube: the number of twists of its shortest solutions, and
+     * the number of these solutions.
+     */
+    public static final class Result {
+
+        private final int bound;
+
+        private final int count;
+
+        Result(int bound, int count) {
+            this.bound = bound;
+            this.count = count;
+        }
+
+        /**
+         * Returns the number of twists of the shortest solutions.
+         *
+         * @return the bound at which solutions were found
+         */
+        public int getBound() {
+            return bound;
+        }
+
+        /**
+         * Returns the number of shortest solutions.
+         *
+         * @return the number of solutions
+         */
+        public int getCount() {
+            return count;
+        }
+
+    }
+
+    private final File file;
+
+    private final long maxBytes;
+
+    // file as opened, and the identity of that file to notice when it is
+    // replaced
+    private RandomAccessFile access;
+
+    private FileChannel channel;
+
+    private Object fileKey;
+
+    // read-only mapping of the file up to the end of the last record read
+    private MappedByteBuffer buffer;
+
+    // end of the last valid record read
+    private long end;
+
+    // hash of the stored cube, and position of the record plus one (0 for an
+    // empty slot), of each slot of the index
+    private long[] hashes;
+
+    private long[] positions;
+
+    private int entries;
+
+    // symmetries for each size of cube seen so far
+    private Symmetry[] symmetries = new Symmetry[0];
+
+    /**
+     * Opens a cache, creating the file if it does not exist yet.
+     *
+     * @param fileName
+     *            file with the results
+     * @param maxBytes
+     *            largest size of the file, in bytes
+     * @throws IOException
+     *             if the file cannot be opened, or is not a cache
+     */
+    public ResultCache(String fileName, long maxBytes) throws IOException {
+        this.file = new File(fileName);
+        this.maxBytes = Math.min(maxBytes, Integer.MAX_VALUE);
+        open();
+    }
+
+    /**
+     * Opens the file, writing the header if it is empty, and reads all
+     * records.
+     */
+    private void open() throws IOException {
+        access = new RandomAccessFile(file, "rw");
+        channel = access.getChannel();
+        fileKey = fileKey();
+
+        FileLock lock = channel.lock();
+        try {
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.write(header, 0);
+            }
+        } finally {
+            lock.release();
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            close();
+            throw new IOException(file + " is not a result cache");
+        }
+
+        hashes = new long[INDEX_CAPACITY];
+        positions = new long[INDEX_CAPACITY];
+        entries = 0;
+        end = HEADER_BYTES;
+        buffer = null;
+        read();
+    }
+
+    /**
+     * Returns the identity of the file currently at the path of the cache.
+     */
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class)
+                .fileKey();
+    }
+
+    /**
+     * Opens the file again if it has been replaced since it was opened.
+     *
+     * @return true if the file was opened again
+     */
+    private boolean reopenIfReplaced() throws IOException {
+        Object current = file.exists() ? fileKey() : null;
+        if (current != null && current.equals(fileKey)) {
+            return false;
+        }
+        close();
+        open();
+        return true;
+    }
+
+    /**
+     * Reads the records added to the file since the last call, up to the
+     * first one not completely written yet.
+     */
+    private void read() throws IOException {
+        long size = Math.min(channel.size(), Integer.MAX_VALUE);
+        if (buffer == null || size > buffer.capacity()) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+
+        int position = (int) end;
+        while (position + RECORD_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            int next = position + RECORD_BYTES + length;
+            if (length <= 0 || next > buffer.capacity()
+                    || buffer.getInt(next - 4) != checksum(position, length)) {
+                // not written (completely) yet
+                break;
+            }
+
+            add(hash(position + DATA_OFFSET, length), position);
+            position = next;
+        }
+        end = position;
+    }
+
+    /**
+     * Returns the checksum of a record in the mapped file.
+     */
+    private int checksum(int position, int length) {
+        CRC32 crc = new CRC32();
+        for (int i = position; i < position + DATA_OFFSET + length; i++) {
+            crc.update(buffer.get(i));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns the hash of a stored cube in the mapped file (FNV-1a).
+     */
+    private long hash(int position, int length) {
+        long result = 0xcbf29ce484222325L;
+        for (int i = position; i < position + length; i++) {
+            result = (result ^ (buffer.get(i) & 0xff)) * 0x100000001b3L;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hash of a stored cube (FNV-1a).
+     */
+    private static long hash(byte[] data) {
+        long result = 0xcbf29ce484222325L;
+        for (byte value : data) {
+            result = (result ^ (value & 0xff)) * 0x100000001b3L;
+        }
+        return result;
+    }
+
+    /**
+     * Adds the position of a record to the index.
+     */
+    private void add(long hash, long position) {
+        if (entries * 2 >= hashes.length) {
+            long[] oldHashes = hashes;
+            long[] oldPositions = positions;
+            hashes = new long[oldHashes.length * 2];
+            positions = new long[oldPositions.length * 2];
+            entries = 0;
+            for (int i = 0; i < oldHashes.length; i++) {
+                if (oldPositions[i] != 0) {
+                    add(oldHashes[i], oldPositions[i] - 1);
+                }
+            }
+        }
+
+        int mask = hashes.length - 1;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (positions[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        positions[slot] = position + 1;
+        entries++;
+    }
+
+    /**
+     * Returns the position of the record of a stored cube, or -1 if it has
+     * not been read.
+     */
+    private int find(int size, byte[] data) {
+        long hash = hash(data);
+        int mask = hashes.length - 1;
+
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        for (; positions[slot] != 0; slot = (slot + 1) & mask) {
+            int position = (int) (positions[slot] - 1);
+            if (hashes[slot] == hash && buffer.getInt(position) == data.length
+                    && buffer.get(position + SIZE_OFFSET) == size
+                    && sameData(position + DATA_OFFSET, data)) {
+                return position;
+            }
+        }
+        return -1;
+    }
+
+    private boolean sameData(int position, byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            if (buffer.get(position + i) != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the canonical conjugate of a cube, with two elements per byte.
+     */
+    private byte[] encode(Cube cube) {
+        int size = cube.getSize();
+        if (size >= symmetries.length) {
+            symmetries = Arrays.copyOf(symmetries, size + 1);
+        }
+        if (symmetries[size] == null) {
+            symmetries[size] = new Symmetry(size);
+        }
+        Symmetry symmetry = symmetries[size];
+
+        byte[] colors = new byte[Cube.SIDES * size * size];
+        symmetry.conjugate(cube, symmetry.canonical(cube), colors);
+
+        byte[] result = new byte[(colors.length + 1) / 2];
+        for (int i = 0; i < colors.length; i++) {
+            result[i / 2] |= colors[i] << ((i % 2) * 4);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the result stored for a cube, or for any cube it is a turned
+     * version of.
+     *
+     * @param cube
+     *            the cube
+     * @return the result, or null if the cube has not been solved before
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    public synchronized Result get(Cube cube) throws IOException {
+        byte[] data = encode(cube);
+
+        int position = find(cube.getSize(), data);
+        if (position < 0) {
+            // another process may have solved it since
+            if (!reopenIfReplaced()) {
+                read();
+            }
+            position = find(cube.getSize(), data);
+        }
+        if (position < 0) {
+            return null;
+        }
+        return new Result(buffer.get(position + BOUND_OFFSET),
+                buffer.getInt(position + COUNT_OFFSET));
+    }
+
+    /**
+     * Stores the result of a cube, unless it is already known.
+     *
+     * @param cube
+     *            the cube
+     * @param bound
+     *            number of twists of the shortest solutions
+     * @param count
+     *            number of shortest solutions
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public synchronized void put(Cube cube, int bound, int count)
+            throws IOException {
+        byte[] data = encode(cube);
+        int length = RECORD_BYTES + data.length;
+
+        if (HEADER_BYTES + length > maxBytes) {
+            // would never fit
+            return;
+        }
+
+        FileLock lock = lock();
+        try {
+            read();
+            if (end + length > maxBytes) {
+                lock = evict(maxBytes / 2 - length);
+            }
+            if (find(cube.getSize(), data) >= 0) {
+                return;
+            }
+
+            ByteBuffer record = ByteBuffer.allocate(length);
+            record.putInt(data.length).put((byte) cube.getSize())
+                    .put((byte) bound).putInt(count).put(data);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 0, length - 4);
+            record.putInt((int) crc.getValue()).flip();
+
+            // overwrites what is left of a record never completed, if any
+            channel.write(record, end);
+            read();
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Locks the file, opening it again first if it was replaced while
+     * waiting for the lock.
+     */
+    private FileLock lock() throws IOException {
+        while (true) {
+            FileLock lock = channel.lock();
+            // opening the file again closes the old one, releasing the lock
+            if (!reopenIfReplaced()) {
+                return lock;
+            }
+        }
+    }
+
+    /**
+     * Replaces the file by a new one with the newest records up to a number
+     * of bytes, and opens it. Must hold the lock of the file.
+     *
+     * @return the lock of the new file
+     */
+    private FileLock evict(long keep) throws IOException {
+        // newest records taking up to keep bytes
+        int start = (int) end;
+        int position = HEADER_BYTES;
+        while (position < end) {
+            if (end - position <= keep) {
+                start = position;
+                break;
+            }
+            position += RECORD_BYTES + buffer.getInt(position);
+        }
+
+        File temporary = new File(file.getPath() + ".tmp");
+        RandomAccessFile copy = new RandomAccessFile(temporary, "rw");
+        try {
+            FileChannel target = copy.getChannel();
+            target.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            target.write(header, 0);
+            long done = 0;
+            while (done < end - start) {
+                done += target.transferFrom(channel.position(start + done),
+                        HEADER_BYTES + done, end - start - done);
+            }
+            target.force(true);
+        } finally {
+            copy.close();
+        }
+
+        Files.move(temporary.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+
+        // releases the lock of the old file
+        close();
+        open();
+        FileLock lock = lock();
+        read();
+        return lock;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException
+     *             if the file cannot be closed
+     */
+    public synchronized void close() throws IOException {
+        buffer = null;
+        access.close();
+    }
+
+}
@@ -1,5 +1,17 @@
 package rubiks.sequential;
 
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import rubiks.search.FaceletHeuristic;
+import rubiks.search.Heuristic;
+import rubiks.search.MaxHeuristic;
+import rubiks.search.PatternDatabase;
+import rubiks.search.PatternHeuristic;
+
 /**
  * Solver for rubik's cube puzzle.
  *
@@ -54,15 +66,84 @@ public class Rubiks {
     /**
      * Solves a Rubik's cube by iteratively searching for solutions with a
      * greater depth. This guarantees the optimal solution is found. Repeats all
-     * work for the previous iteration each iteration though...
+     * work for the previous iteration each iteration though, unless memory is
+     * given to keep the {@link Frontier} of the previous iteration.
      *
      * @param cube
      *            the cube to solve
+     * @param reference
+     *            if true, search by generating new children for every cube
+     *            instead of twisting a single cube in place
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristics
+     *            estimate used to cut off the search by each thread, or null
+     *            values if none. More than one searches in parallel.
+     * @param splitDepth
+     *            depth at which the search is split into parallel subtrees
+     * @param symmetry
+     *            if true, search subtrees at the split depth with symmetric
+     *            roots only once
+     * @param frontierMemory
+     *            memory for the frontier in bytes, or 0 to search from the
+     *            start every iteration
+     * @param tableMemory
+     *            memory for a transposition table shared by all threads in
+     *            bytes, or 0 for none
+     * @param bidirectionalSolver
+     *            solver meeting in the middle to use instead, or null
+     * @param resultCache
+     *            results of cubes solved before, looked up before searching
+     *            and added to afterwards, or null
+     * @param statistics
+     *            statistics to add the nodes searched for every bound to
      */
-    private static void solve(Cube cube) {
+    private static void solve(Cube cube, boolean reference, boolean pruning,
+            Heuristic[] heuristics, int splitDepth, boolean symmetry,
+            long frontierMemory, long tableMemory,
+            BidirectionalSolver bidirectionalSolver, ResultCache resultCache,
+            SearchStatistics statistics) {
+        if (resultCache != null) {
+            ResultCache.Result known = null;
+            try {
+                known = resultCache.get(cube);
+            } catch (IOException e) {
+                System.err.println("Cannot read result cache: " + e);
+            }
+            if (known != null) {
+                // same output as when searching
+                System.out.print("Bound now:");
+                for (int bound = 1; bound <= known.getBound(); bound++) {
+                    System.out.print(" " + bound);
+                }
+                System.out.println();
+                System.out.println("Solving cube possible in "
+                        + known.getCount() + " ways of " + known.getBound()
+                        + " steps");
+                return;
+            }
+        }
+
         // cache used for cube objects. Doing new Cube() for every move
         // overloads the garbage collector
         CubeCache cache = new CubeCache(cube.getSize());
+        TranspositionTable table = null;
+        if (tableMemory > 0) {
+            table = new TranspositionTable(tableMemory);
+        }
+        Solver solver = new Solver(cube.getSize(), pruning, heuristics[0],
+                symmetry ? splitDepth : 0, table);
+        ParallelSolver parallelSolver = null;
+        if (heuristics.length > 1) {
+            parallelSolver = new ParallelSolver(cube.getSize(), pruning,
+                    heuristics, splitDepth, symmetry, table);
+        }
+        // leaves of the search for the previous bound, if any
+        Frontier frontier = null;
+        if (frontierMemory > 0) {
+            frontier = Frontier.root(cube, frontierMemory);
+        }
+        boolean keepFrontier = frontier != null;
         int bound = 0;
         int result = 0;
 
@@ -73,12 +154,231 @@ public class Rubiks {
             cube.setBound(bound);
 
             System.out.print(" " + bound);
-            result = solutions(cube, cache);
+            statistics.startBound(bound);
+            if (reference) {
+                result = solutions(cube, cache);
+            } else if (bidirectionalSolver != null) {
+                result = bidirectionalSolver.solutions(cube);
+            } else if (parallelSolver != null) {
+                result = parallelSolver.solutions(cube);
+            } else if (frontier != null) {
+                // keep the leaves of this bound in the memory left, until
+                // they no longer fit. From then on, the search continues
+                // from the last frontier
+                Frontier next = null;
+                if (keepFrontier) {
+                    next = new Frontier(cube, frontierMemory
+                            - frontier.getMemory());
+                }
+
+                result = solver.solutions(cube, frontier, next);
+
+                if (next != null && next.isFull()) {
+                    keepFrontier = false;
+                } else if (next != null) {
+                    frontier = next;
+                }
+            } else {
+                result = solver.solutions(cube);
+            }
+
+            solver.collect(statistics);
+            if (parallelSolver != null) {
+                parallelSolver.collect(statistics);
+            }
+            cache.collect(statistics);
+            statistics.endBound();
         }
 
         System.out.println();
         System.out.println("Solving cube possible in " + result + " ways of "
                 + bound + " steps");
+
+        if (resultCache != null) {
+            try {
+                resultCache.put(cube, bound, result);
+            } catch (IOException e) {
+                System.err.println("Cannot write result cache: " + e);
+            }
+        }
+    }
+
+    /**
+     * Solves all cubes of a batch with a {@link BatchSolver}, and prints how
+     * long it took.
+     *
+     * @param batchPath
+     *            directory with the cube files, file listing them, or a
+     *            {@link CubeFile}
+     * @param outputName
+     *            file to write the results to, or null for standard out
+     * @param threads
+     *            number of cubes to solve at the same time
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristicName
+     *            name of the heuristic
+     * @param patternFiles
+     *            pattern databases to use instead, if any
+     * @param symmetryDepth
+     *            depth of the subtrees of which symmetric ones are searched
+     *            once, or 0 for none
+     * @param tableMemory
+     *            memory for a transposition table shared by all threads in
+     *            bytes, or 0 for none
+     * @param resultCache
+     *            results of cubes solved before, or null
+     * @param maxBound
+     *            largest bound to search a cube for, or 0 for the default
+     *            of its size
+     */
+    private static void solveBatch(String batchPath, String outputName,
+            int threads, boolean pruning, String heuristicName,
+            List<String> patternFiles, int symmetryDepth, long tableMemory,
+            ResultCache resultCache, int maxBound) {
+        if (threads < 1) {
+            System.err.println("number of threads must be at least 1");
+            System.exit(1);
+        }
+
+        List<String> fileNames = null;
+        CubeFile cubes = null;
+        BatchSolver solver = null;
+        PrintStream output = System.out;
+        try {
+            if (CubeFile.isCubeFile(batchPath)) {
+                cubes = CubeFile.open(batchPath);
+            } else {
+                fileNames = BatchSolver.files(batchPath);
+            }
+            TranspositionTable table = null;
+            if (tableMemory > 0) {
+                table = new TranspositionTable(tableMemory);
+            }
+            solver = new BatchSolver(threads, pruning, heuristicName,
+                    patternFiles, symmetryDepth, table, resultCache,
+                    maxBound);
+            if (outputName != null) {
+                output = new PrintStream(new FileOutputStream(outputName));
+            }
+        } catch (Exception e) {
+            System.err.println("Cannot start batch: " + e);
+            System.exit(1);
+        }
+
+        long start = System.currentTimeMillis();
+        int solved;
+        int count;
+        if (cubes != null) {
+            solved = solver.solve(cubes, output);
+            count = cubes.getCount();
+        } else {
+            solved = solver.solve(fileNames, output);
+            count = fileNames.size();
+        }
+        long end = System.currentTimeMillis();
+
+        if (output != System.out) {
+            output.close();
+        }
+
+        long time = Math.max(end - start, 1);
+        System.err.println("Solved " + solved + " of " + count
+                + " cubes in " + time + " milliseconds ("
+                + (solved * 3600000L / time) + " cubes per hour)");
+    }
+
+    /**
+     * Prints the estimated number of nodes and time of the search of every
+     * bound of a cube, see {@link TreeEstimator}.
+     *
+     * @param cube
+     *            the cube
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristic
+     *            estimate used to cut off the search, or null if none
+     * @param maxBound
+     *            largest bound to estimate
+     * @param probes
+     *            number of probes per bound
+     */
+    private static void estimate(Cube cube, boolean pruning,
+            Heuristic heuristic, int maxBound, int probes) {
+        TreeEstimator estimator = new TreeEstimator(cube.getSize(), pruning,
+                heuristic, probes, 0);
+
+        long start = System.currentTimeMillis();
+        List<TreeEstimator.Estimate> estimates = estimator.estimate(cube,
+                maxBound);
+        long end = System.currentTimeMillis();
+
+        double total = 0;
+        for (TreeEstimator.Estimate estimate : estimates) {
+            total += estimate.getMillis();
+
+            String line = "Bound " + estimate.getBound() + ": "
+                    + Math.round(estimate.getNodes()) + " nodes, "
+                    + Math.round(estimate.getMillis()) + " milliseconds";
+            if (estimate.isSearched()) {
+                line += " (searched, " + estimate.getSolutions()
+                        + " solutions)";
+            } else {
+                line += " (estimated)";
+            }
+            System.out.println(line);
+        }
+        System.out.println("Searching up to bound "
+                + estimates.get(estimates.size() - 1).getBound()
+                + " takes about " + Math.round(total) + " milliseconds");
+
+        System.err.println("Estimating took " + (end - start)
+                + " milliseconds");
+    }
+
+    /**
+     * Creates the heuristic with the given name.
+     *
+     * @param name
+     *            name of the heuristic
+     * @param patternFiles
+     *            pattern databases to use instead, if any
+     * @param cube
+     *            the cube to solve
+     * @return the heuristic, or null for "none"
+     * @throws Exception
+     *             if the name is not known, or a pattern database cannot be
+     *             used for this cube
+     */
+    public static Heuristic createHeuristic(String name,
+            List<String> patternFiles, Cube cube) throws Exception {
+        if (!patternFiles.isEmpty()) {
+            Heuristic[] patterns = new Heuristic[patternFiles.size()];
+            for (int i = 0; i < patterns.length; i++) {
+                String patternFile = patternFiles.get(i);
+                PatternDatabase database = PatternDatabase.load(patternFile);
+                if (database.getCubeSize() != cube.getSize()) {
+                    throw new Exception(patternFile
+                            + " is for cubes of size " + database.getCubeSize());
+                }
+                PatternHeuristic pattern = new PatternHeuristic(database);
+                if (!pattern.accepts(cube)) {
+                    throw new Exception(patternFile
+                            + " cannot be used for the colors of this cube");
+                }
+                patterns[i] = pattern;
+            }
+
+            if (patterns.length == 1) {
+                return patterns[0];
+            }
+            return new MaxHeuristic(patterns);
+        } else if (name.equalsIgnoreCase("none")) {
+            return null;
+        } else if (name.equalsIgnoreCase("facelets")) {
+            return new FaceletHeuristic(cube.getSize());
+        }
+        throw new Exception("unknown heuristic: " + name);
     }
 
     public static void printUsage() {
@@ -98,10 +398,46 @@ public class Rubiks {
         System.out
                 .println("--seed SEED\t\tSeed of random generator (default: 0");
         System.out
-                .println("--threads THREADS\t\tNumber of threads to use (default: 1, other values not supported by sequential version)");
+                .println("--threads THREADS\t\tNumber of threads to use (default: 1)");
+        System.out
+                .println("--split-depth DEPTH\t\tDepth at which the search is split up between threads (default: 3)");
+        System.out
+                .println("--frontier-memory MB\t\tKeep the leaves of the search for the last bound in up to MB megabytes, to continue from there (default: 0, off)");
+        System.out
+                .println("--table-memory MB\t\tRemember the number of solutions of states searched before in up to MB megabytes, shared by all threads (default: 0, off)");
+        System.out
+                .println("--cache FILE_NAME\t\tLook up cubes solved before in a file, and add results to it. The file may be shared by several runs at once");
+        System.out
+                .println("--cache-memory MB\t\tLargest size of the --cache file, dropping the oldest results when full (default: 64)");
         System.out.println("");
+        System.out
+                .println("--statistics FILE_NAME\t\tWrite the nodes searched, nodes per second and effective branching factor of every bound to a file, as JSON if the name ends in .json, as CSV otherwise");
+        System.out
+                .println("--jmx\t\tPublish the statistics of every bound as an MXBean while solving");
+        System.out
+                .println("--estimate BOUND\t\tInstead of solving, estimate the nodes and time of the search of every bound up to BOUND, for a single thread without --table-memory or --symmetry");
+        System.out
+                .println("--probes PROBES\t\tNumber of random probes of the search tree per bound for --estimate (default: " + TreeEstimator.DEFAULT_PROBES + ")");
         System.out
                 .println("--file FILE_NAME\t\tLoad cube from given file instead of generating it");
+        System.out
+                .println("--batch PATH\t\tSolve all cube files in a directory, listed in a file, or in a binary cube file, using THREADS threads for different cubes at once");
+        System.out
+                .println("--output FILE_NAME\t\tWrite the results of --batch to a file instead of standard out");
+        System.out
+                .println("--max-bound BOUND\t\tGive up on cubes of --batch not solved within BOUND twists (default: " + BatchSolver.MAX_TWISTS_2 + " for size 2, no maximum otherwise)");
+        System.out
+                .println("--reference\t\tSolve by generating new child cubes for every twist, using a single thread (slow)");
+        System.out
+                .println("--bidirectional\t\tSolve by meeting in the middle, using a lot of memory (cubes of size 2 and 3 only)");
+        System.out
+                .println("--symmetry\t\tSearch the parts of the search at the split depth which are symmetric to each other only once");
+        System.out
+                .println("--no-pruning\t\tAlso search redundant sequences of twists (slow)");
+        System.out
+                .println("--heuristic NAME\t\tLower bound used to cut off the search: none or facelets (default: facelets)");
+        System.out
+                .println("--pattern FILE_NAME\t\tUse pattern database (see PatternGenerator) as heuristic, may be given more than once");
         System.out.println("");
     }
 
@@ -119,9 +455,40 @@ public class Rubiks {
         int twists = 11;
         int seed = 0;
         String fileName = null;
+        String batchPath = null;
+        String outputName = null;
+        int maxBound = 0;
+        boolean reference = false;
+        boolean bidirectional = false;
+        boolean symmetry = false;
+        boolean pruning = true;
+        String heuristicName = "facelets";
+        List<String> patternFiles = new ArrayList<String>();
 
         // number of threads used to solve puzzle
-        // (not used in sequential version)
+        int threads = 1;
+        int splitDepth = 3;
+
+        // memory used to keep nodes from the previous bound, in megabytes
+        long frontierMemory = 0;
+
+        // memory used to remember states searched before, in megabytes
+        long tableMemory = 0;
+
+        // file with results of cubes solved before, and its largest size in
+        // megabytes
+        String cacheName = null;
+        long cacheMemory = 64;
+
+        // file to write the statistics of the search to, and if they are
+        // published with JMX
+        String statisticsName = null;
+        boolean jmx = false;
+
+        // largest bound to estimate the search for instead of solving, and
+        // the number of probes per bound
+        int estimateBound = 0;
+        int probes = TreeEstimator.DEFAULT_PROBES;
 
         for (int i = 0; i < arguments.length; i++) {
             if (arguments[i].equalsIgnoreCase("--size")) {
@@ -133,9 +500,61 @@ public class Rubiks {
             } else if (arguments[i].equalsIgnoreCase("--seed")) {
                 i++;
                 seed = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--threads")) {
+                i++;
+                threads = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--split-depth")) {
+                i++;
+                splitDepth = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--frontier-memory")) {
+                i++;
+                frontierMemory = Long.parseLong(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--table-memory")) {
+                i++;
+                tableMemory = Long.parseLong(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--cache")) {
+                i++;
+                cacheName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--cache-memory")) {
+                i++;
+                cacheMemory = Long.parseLong(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--statistics")) {
+                i++;
+                statisticsName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--jmx")) {
+                jmx = true;
+            } else if (arguments[i].equalsIgnoreCase("--estimate")) {
+                i++;
+                estimateBound = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--probes")) {
+                i++;
+                probes = Integer.parseInt(arguments[i]);
             } else if (arguments[i].equalsIgnoreCase("--file")) {
                 i++;
                 fileName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--batch")) {
+                i++;
+                batchPath = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--output")) {
+                i++;
+                outputName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--max-bound")) {
+                i++;
+                maxBound = Integer.parseInt(arguments[i]);
+            } else if (arguments[i].equalsIgnoreCase("--reference")) {
+                reference = true;
+            } else if (arguments[i].equalsIgnoreCase("--bidirectional")) {
+                bidirectional = true;
+            } else if (arguments[i].equalsIgnoreCase("--symmetry")) {
+                symmetry = true;
+            } else if (arguments[i].equalsIgnoreCase("--no-pruning")) {
+                pruning = false;
+            } else if (arguments[i].equalsIgnoreCase("--heuristic")) {
+                i++;
+                heuristicName = arguments[i];
+            } else if (arguments[i].equalsIgnoreCase("--pattern")) {
+                i++;
+                patternFiles.add(arguments[i]);
             } else if (arguments[i].equalsIgnoreCase("--help") || arguments[i].equalsIgnoreCase("-h")) {
                 printUsage();
                 System.exit(0);
@@ -146,6 +565,31 @@ public class Rubiks {
             }
         }
 
+        ResultCache resultCache = null;
+        if (cacheName != null) {
+            try {
+                resultCache = new ResultCache(cacheName,
+                        cacheMemory * 1024 * 1024);
+            } catch (IOException e) {
+                System.err.println("Cannot open result cache: " + e);
+                System.exit(1);
+            }
+        }
+
+        if (batchPath != null) {
+            if (fileName != null || reference || bidirectional
+                    || frontierMemory > 0 || statisticsName != null || jmx
+                    || estimateBound > 0) {
+                System.err
+                        .println("--batch does not work with --file, --reference, --bidirectional, --frontier-memory, --statistics, --jmx or --estimate");
+                System.exit(1);
+            }
+            solveBatch(batchPath, outputName, threads, pruning,
+                    heuristicName, patternFiles, symmetry ? splitDepth : 0,
+                    tableMemory * 1024 * 1024, resultCache, maxBound);
+            return;
+        }
+
         // create cube
         if (fileName == null) {
             cube = new Cube(size, twists, seed);
@@ -158,6 +602,68 @@ public class Rubiks {
             }
         }
 
+        if (threads < 1) {
+            System.err.println("number of threads must be at least 1");
+            System.exit(1);
+        }
+
+        if (frontierMemory > 0 && (threads > 1 || reference)) {
+            System.err
+                    .println("--frontier-memory only works with a single thread, without --reference");
+            System.exit(1);
+        }
+
+        if (bidirectional
+                && (threads > 1 || reference || frontierMemory > 0)) {
+            System.err
+                    .println("--bidirectional only works with a single thread, without --reference or --frontier-memory");
+            System.exit(1);
+        }
+
+        if (symmetry && (reference || bidirectional || frontierMemory > 0)) {
+            System.err
+                    .println("--symmetry does not work with --reference, --bidirectional or --frontier-memory");
+            System.exit(1);
+        }
+
+        if (tableMemory > 0 && (reference || bidirectional)) {
+            System.err
+                    .println("--table-memory does not work with --reference or --bidirectional");
+            System.exit(1);
+        }
+
+        Heuristic[] heuristics = new Heuristic[threads];
+        try {
+            for (int i = 0; i < threads; i++) {
+                if (i > 0 && !patternFiles.isEmpty()) {
+                    // pattern databases are thread safe, share them
+                    heuristics[i] = heuristics[0];
+                } else {
+                    heuristics[i] = createHeuristic(heuristicName,
+                            patternFiles, cube);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Cannot create heuristic: " + e);
+            System.exit(1);
+        }
+
+        BidirectionalSolver bidirectionalSolver = null;
+        if (bidirectional) {
+            if (!BidirectionalSolver.supports(cube.getSize())) {
+                System.err
+                        .println("--bidirectional only works for cubes of size 2 and 3");
+                System.exit(1);
+            }
+            bidirectionalSolver = new BidirectionalSolver(cube.getSize(),
+                    heuristics[0]);
+            if (!bidirectionalSolver.accepts(cube)) {
+                System.err
+                        .println("--bidirectional cannot be used for the colors of this cube");
+                System.exit(1);
+            }
+        }
+
         // print cube info
         System.out.println("Searching for solution for cube of size "
                 + cube.getSize() + ", twists = " + twists + ", seed = " + seed);
@@ -165,9 +671,25 @@ public class Rubiks {
         System.out.flush();
 
 
+        if (estimateBound > 0) {
+            estimate(cube, pruning, heuristics[0], estimateBound, probes);
+            return;
+        }
+
+        SearchStatistics statistics = new SearchStatistics();
+        if (jmx) {
+            try {
+                statistics.register();
+            } catch (Exception e) {
+                System.err.println("Cannot register statistics: " + e);
+            }
+        }
+
         // solve
         long start = System.currentTimeMillis();
-        solve(cube);
+        solve(cube, reference, pruning, heuristics, splitDepth, symmetry,
+                frontierMemory * 1024 * 1024, tableMemory * 1024 * 1024,
+                bidirectionalSolver, resultCache, statistics);
         long end = System.currentTimeMillis();
 
         // NOTE: this is printed to standard error! The rest of the output is
@@ -176,6 +698,14 @@ public class Rubiks {
         System.err.println("Solving cube took " + (end - start)
                 + " milliseconds");
 
+        if (statisticsName != null) {
+            try {
+                statistics.write(statisticsName);
+            } catch (IOException e) {
+                System.err.println("Cannot write statistics: " + e);
+            }
+        }
+
     }
 
 }
@@ -0,0 +1,356 @@
+package rubiks.sequential;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ObjectName;
+
+/**
+ * Statistics of a search, for every bound: the number of nodes searched,
+ * nodes per second and the effective branching factor.
+ *
+ * Nodes are counted by every thread in its own {@link Solver} (and
+ * {@link CubeCache}), without any synchronization, and added here when the
+ * bound is done. Counting therefore costs a few increments per node, and the
+ * numbers of a bound are only known once it is finished.
+ *
+ * The nodes of a bound are the nodes expanded, leaves, nodes cut off by the
+ * heuristic, and nodes found in the {@link TranspositionTable}; every node is
+ * one of these. Leaves are nodes at the bound, which are checked but not
+ * expanded, even if they are not twisted at all. The effective branching
+ * factor is the branching factor b of a complete tree with the same number
+ * of nodes and depth d (the bound): 1 + b + b^2 + ... + b^d nodes.
+ *
+ * The statistics can be followed while searching with JMX, see
+ * {@link #register()}, and written to a file, see {@link #write(String)}.
+ * They do not include searches by a {@link BidirectionalSolver}, and the
+ * reference search only counts the hits and misses of its cube cache.
+ *
+ */
+public final class SearchStatistics implements SearchStatisticsMXBean {
+
+    /**
+     * Name of the statistics in the platform MBean server.
+     */
+    public static final String OBJECT_NAME = "rubiks:type=SearchStatistics";
+
+    /**
+     * Statistics of a single bound.
+     */
+    public static final class Bound {
+
+        private final int bound;
+
+        private final long nanos;
+
+        private final long expanded;
+
+        private final long leaves;
+
+        private final long cutoffs;
+
+        private final long tableHits;
+
+        private final long tableMisses;
+
+        private final long cacheHits;
+
+        private final long cacheMisses;
+
+        Bound(int bound, long nanos, long expanded, long leaves,
+                long cutoffs, long tableHits, long tableMisses,
+                long cacheHits, long cacheMisses) {
+            this.bound = bound;
+            this.nanos = nanos;
+            this.expanded = expanded;
+            this.leaves = leaves;
+            this.cutoffs = cutoffs;
+            this.tableHits = tableHits;
+            this.tableMisses = tableMisses;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+        }
+
+        public int getBound() {
+            return bound;
+        }
+
+        public long getMillis() {
+            return nanos / 1000000;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+
+        public long getNodes() {
+            return expanded + leaves + cutoffs + tableHits;
+        }
+
+        public long getExpanded() {
+            return expanded;
+        }
+
+        public long getLeaves() {
+            return leaves;
+        }
+
+        public long getCutoffs() {
+            return cutoffs;
+        }
+
+        public long getTableHits() {
+            return tableHits;
+        }
+
+        public long getTableMisses() {
+            return tableMisses;
+        }
+
+        public long getCacheHits() {
+            return cacheHits;
+        }
+
+        public long getCacheMisses() {
+            return cacheMisses;
+        }
+
+        public double getNodesPerSecond() {
+            return getNodes() * 1e9 / Math.max(nanos, 1);
+        }
+
+        /**
+         * Returns the effective branching factor, found by bisection.
+         */
+        public double getBranchingFactor() {
+            long nodes = getNodes();
+            if (nodes <= 1 || bound == 0) {
+                return 0;
+            }
+
+            double low = 0;
+            double high = nodes;
+            for (int i = 0; i < 64; i++) {
+                double middle = (low + high) / 2;
+                if (treeSize(middle, bound) < nodes) {
+                    low = middle;
+                } else {
+                    high = middle;
+                }
+            }
+            return (low + high) / 2;
+        }
+
+        /**
+         * Returns the number of nodes of a complete tree.
+         */
+        private static double treeSize(double branching, int depth) {
+            double result = 1;
+            double level = 1;
+            for (int i = 0; i < depth; i++) {
+                level *= branching;
+                result += level;
+            }
+            return result;
+        }
+
+    }
+
+    // finished bounds
+    private final List<Bound> bounds = new ArrayList<Bound>();
+
+    // bound being searched, and when it was started
+    private int currentBound;
+
+    private long start;
+
+    // counts of the current bound so far
+
+    private long expanded;
+
+    private long leaves;
+
+    private long cutoffs;
+
+    private long tableHits;
+
+    private long tableMisses;
+
+    private long cacheHits;
+
+    private long cacheMisses;
+
+    /**
+     * Registers these statistics in the platform MBean server, as
+     * {@link #OBJECT_NAME}.
+     *
+     * @throws Exception
+     *             if the statistics cannot be registered
+     */
+    public void register() throws Exception {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Starts counting a bound.
+     *
+     * @param bound
+     *            the bound
+     */
+    public synchronized void startBound(int bound) {
+        currentBound = bound;
+        start = System.nanoTime();
+
+        expanded = 0;
+        leaves = 0;
+        cutoffs = 0;
+        tableHits = 0;
+        tableMisses = 0;
+        cacheHits = 0;
+        cacheMisses = 0;
+    }
+
+    /**
+     * Adds counts of a solver to the current bound.
+     */
+    synchronized void addSearch(long expanded, long leaves, long cutoffs,
+            long tableHits, long tableMisses) {
+        this.expanded += expanded;
+        this.leaves += leaves;
+        this.cutoffs += cutoffs;
+        this.tableHits += tableHits;
+        this.tableMisses += tableMisses;
+    }
+
+    /**
+     * Adds counts of a cube cache to the current bound.
+     */
+    synchronized void addCache(long hits, long misses) {
+        cacheHits += hits;
+        cacheMisses += misses;
+    }
+
+    /**
+     * Finishes the current bound, after all counts have been added.
+     *
+     * @return the statistics of the bound
+     */
+    public synchronized Bound endBound() {
+        Bound result = new Bound(currentBound, System.nanoTime() - start,
+                expanded, leaves, cutoffs, tableHits, tableMisses, cacheHits,
+                cacheMisses);
+        bounds.add(result);
+        return result;
+    }
+
+    @Override
+    public synchronized int getCurrentBound() {
+        return currentBound;
+    }
+
+    @Override
+    public synchronized List<Bound> getBounds() {
+        return new ArrayList<Bound>(bounds);
+    }
+
+    @Override
+    public synchronized Bound getLastBound() {
+        if (bounds.isEmpty()) {
+            return null;
+        }
+        return bounds.get(bounds.size() - 1);
+    }
+
+    @Override
+    public synchronized long getTotalNodes() {
+        long result = 0;
+        for (Bound bound : bounds) {
+            result += bound.getNodes();
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized long getTotalMillis() {
+        long result = 0;
+        for (Bound bound : bounds) {
+            result += bound.nanos;
+        }
+        return result / 1000000;
+    }
+
+    /**
+     * Writes the statistics of all finished bounds to a file, as JSON if its
+     * name ends in ".json", or else as CSV with a header line.
+     *
+     * @param fileName
+     *            name of the file
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void write(String fileName) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(fileName));
+        try {
+            if (fileName.toLowerCase().endsWith(".json")) {
+                writeJson(out);
+            } else {
+                writeCsv(out);
+            }
+        } finally {
+            out.close();
+        }
+        if (out.checkError()) {
+            throw new IOException("cannot write " + fileName);
+        }
+    }
+
+    private void writeCsv(PrintStream out) {
+        out.println("bound,millis,nodes,expanded,leaves,cutoffs,table_hits,"
+                + "table_misses,cache_hits,cache_misses,nodes_per_second,"
+                + "branching_factor");
+
+        for (Bound bound : getBounds()) {
+            out.println(bound.getBound() + "," + bound.getMillis() + ","
+                    + bound.getNodes() + "," + bound.getExpanded() + ","
+                    + bound.getLeaves() + "," + bound.getCutoffs() + ","
+                    + bound.getTableHits() + "," + bound.getTableMisses()
+                    + "," + bound.getCacheHits() + ","
+                    + bound.getCacheMisses() + ","
+                    + Math.round(bound.getNodesPerSecond()) + ","
+                    + bound.getBranchingFactor());
+        }
+    }
+
+    private void writeJson(PrintStream out) {
+        List<Bound> all = getBounds();
+
+        out.println("{");
+        out.println("  \"totalNodes\": " + getTotalNodes() + ",");
+        out.println("  \"totalMillis\": " + getTotalMillis() + ",");
+        out.println("  \"bounds\": [");
+        for (int i = 0; i < all.size(); i++) {
+            Bound bound = all.get(i);
+            out.println("    {\"bound\": " + bound.getBound()
+                    + ", \"millis\": " + bound.getMillis() + ", \"nodes\": "
+                    + bound.getNodes() + ", \"expanded\": "
+                    + bound.getExpanded() + ", \"leaves\": "
+                    + bound.getLeaves() + ", \"cutoffs\": "
+                    + bound.getCutoffs() + ", \"tableHits\": "
+                    + bound.getTableHits() + ", \"tableMisses\": "
+                    + bound.getTableMisses() + ", \"cacheHits\": "
+                    + bound.getCacheHits() + ", \"cacheMisses\": "
+                    + bound.getCacheMisses() + ", \"nodesPerSecond\": "
+                    + Math.round(bound.getNodesPerSecond())
+                    + ", \"branchingFactor\": " + bound.getBranchingFactor()
+                    + "}" + (i < all.size() - 1 ? "," : ""));
+        }
+        out.println("  ]");
+        out.println("}");
+    }
+
+}
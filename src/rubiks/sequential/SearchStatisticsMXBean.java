@@ -0,0 +1,47 @@
+package rubiks.sequential;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link SearchStatistics}, to follow a search with
+ * JMX tools such as jconsole. Numbers are updated at the end of every bound.
+ *
+ */
+public interface SearchStatisticsMXBean {
+
+    /**
+     * Returns the bound being searched now.
+     *
+     * @return the current bound, or 0 if no bound was started yet
+     */
+    int getCurrentBound();
+
+    /**
+     * Returns the statistics of every bound searched completely, in order.
+     *
+     * @return the statistics of all finished bounds
+     */
+    List<SearchStatistics.Bound> getBounds();
+
+    /**
+     * Returns the statistics of the last bound searched completely.
+     *
+     * @return the statistics of the last bound, or null if none
+     */
+    SearchStatistics.Bound getLastBound();
+
+    /**
+     * Returns the number of nodes searched in all finished bounds.
+     *
+     * @return the total number of nodes
+     */
+    long getTotalNodes();
+
+    /**
+     * Returns the time taken by all finished bounds.
+     *
+     * @return the total time in milliseconds
+     */
+    long getTotalMillis();
+
+}
@@ -0,0 +1,606 @@
+package rubiks.sequential;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import rubiks.search.Heuristic;
+import rubiks.search.Symmetry;
+
+/**
+ * Depth first search for solutions of a cube. Instead of creating a new cube
+ * for every child, a single cube is twisted in place, searched, and twisted
+ * back again before trying the next twist. No objects are created while
+ * searching.
+ *
+ * Redundant sequences of twists are skipped using a {@link MoveFilter}. The
+ * number of solutions found is the same as when searching all sequences.
+ *
+ * If a {@link Heuristic} is given, cubes which cannot be solved within the
+ * bound according to its estimate are not searched any further (IDA*).
+ *
+ * Most nodes are leaves at the bound, which only need to be checked. All
+ * leaves below a node are checked at once with {@link Cube#solvedAfter()}
+ * (or one by one with {@link Cube#isSolvedAfter(int)} for cubes with too
+ * many twists), and the cube is only twisted for the rare solved leaf. For
+ * big cubes, where a twist moves hundreds of elements, this saves most of the
+ * work.
+ *
+ * The search tree can also be split into {@link Subtree}s, to be searched
+ * separately, for instance by different threads or machines. Or the search
+ * can continue from the {@link Frontier} of the previous bound.
+ *
+ * Optionally, subtrees of which the roots are turned versions of each other
+ * (see {@link Symmetry}) are searched only once, counting the solutions for
+ * all of them. Such subtrees have the same number of solutions.
+ *
+ * A {@link TranspositionTable} can be given to remember the number of
+ * solutions of nodes, so nodes reached again are not searched again. Nodes
+ * close to the bound are not stored: searching them again costs less than
+ * looking them up.
+ *
+ * A solver counts the nodes it searches, to be added to
+ * {@link SearchStatistics} with {@link #collect(SearchStatistics)}. A solver
+ * should therefore be used by a single thread at a time.
+ *
+ */
+public class Solver {
+
+    // fewest twists left up to the bound for a node to be in the table
+    private static final int TABLE_MIN_LEFT = 3;
+
+    // filter for redundant twists, or null to search all twists
+    private final MoveFilter filter;
+
+    // lower bound for the twists needed to solve a cube, or null if none
+    private final Heuristic heuristic;
+
+    // symmetries of the cubes, or null to search symmetric subtrees anyway
+    private final Symmetry symmetry;
+
+    // depth of the subtrees searched once for all symmetric ones
+    private final int symmetryDepth;
+
+    // solutions of nodes searched before, or null if not kept
+    private final TranspositionTable table;
+
+    // nodes searched since the last collect(), see SearchStatistics. Only
+    // the thread using this solver counts, so no synchronization is needed
+
+    private long expanded;
+
+    private long leaves;
+
+    private long cutoffs;
+
+    private long tableHits;
+
+    private long tableMisses;
+
+    /**
+     * Creates a solver for cubes of a given size.
+     *
+     * @param size
+     *            size of the cubes to solve
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristic
+     *            estimate used to cut off the search, or null to search up to
+     *            the bound
+     */
+    public Solver(int size, boolean pruning, Heuristic heuristic) {
+        this(size, pruning, heuristic, 0);
+    }
+
+    /**
+     * Creates a solver for cubes of a given size, which searches symmetric
+     * subtrees only once.
+     *
+     * @param size
+     *            size of the cubes to solve
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristic
+     *            estimate used to cut off the search, or null to search up to
+     *            the bound
+     * @param symmetryDepth
+     *            depth of the subtrees compared by {@link #solutions(Cube)},
+     *            or 0 to not look for symmetric subtrees at all. Subtrees
+     *            created by {@link #split(Cube, int, List)} are always
+     *            compared if this is not 0.
+     */
+    public Solver(int size, boolean pruning, Heuristic heuristic,
+            int symmetryDepth) {
+        this(size, pruning, heuristic, symmetryDepth, null);
+    }
+
+    /**
+     * Creates a solver for cubes of a given size, which looks up nodes
+     * searched before in a table.
+     *
+     * @param size
+     *            size of the cubes to solve
+     * @param pruning
+     *            if true, skip redundant sequences of twists
+     * @param heuristic
+     *            estimate used to cut off the search, or null to search up to
+     *            the bound
+     * @param symmetryDepth
+     *            depth of the subtrees of which symmetric ones are searched
+     *            once, or 0 for none, see
+     *            {@link #Solver(int, boolean, Heuristic, int)}
+     * @param table
+     *            table of nodes searched before, may be shared with other
+     *            solvers, or null
+     */
+    public Solver(int size, boolean pruning, Heuristic heuristic,
+            int symmetryDepth, TranspositionTable table) {
+        this.heuristic = heuristic;
+        this.symmetryDepth = symmetryDepth;
+        this.table = table;
+
+        if (symmetryDepth > 0) {
+            symmetry = new Symmetry(size);
+        } else {
+            symmetry = null;
+        }
+
+        if (pruning) {
+            filter = new MoveFilter(size);
+        } else {
+            filter = null;
+        }
+    }
+
+    /**
+     * Finds all solutions for a given cube. Only searches to the bound set in
+     * the cube object. The cube is twisted while searching, but is back in its
+     * original state when this function returns.
+     *
+     * @param cube
+     *            cube to solve
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube) {
+        if (symmetry == null) {
+            return solutions(cube, MoveFilter.START, filter != null);
+        }
+
+        List<Subtree> subtrees = new ArrayList<Subtree>();
+        int result = split(cube, symmetryDepth, subtrees);
+
+        for (Subtree subtree : subtrees) {
+            subtree.apply(cube);
+            result += solutions(cube, subtree);
+            subtree.undo(cube);
+        }
+
+        return result;
+    }
+
+    /**
+     * Finds all solutions in a subtree of a cube. Only searches to the bound
+     * set in the cube object.
+     *
+     * @param cube
+     *            cube the subtree was split from, twisted to the root of the
+     *            subtree with {@link Subtree#apply(Cube)}
+     * @param subtree
+     *            the subtree
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube, Subtree subtree) {
+        return subtree.getWeight()
+                * solutions(cube, subtree.getState(), filter != null);
+    }
+
+    /**
+     * Finds all solutions for a given cube, continuing from the leaves of the
+     * search for a lower bound instead of starting at the cube. Only searches
+     * to the bound set in the cube object. The leaves of this search can be
+     * kept as well, to continue from for the next bound.
+     *
+     * As a frontier does not keep solved cubes, it should only be used if
+     * there are no solutions shorter than the bound it was made for, as is
+     * the case when each bound is tried in turn.
+     *
+     * @param cube
+     *            cube to solve
+     * @param frontier
+     *            leaves of the search of the cube for a lower bound, see
+     *            {@link Frontier#root(Cube, long)} for the first bound
+     * @param next
+     *            empty frontier to add the leaves of this search to, or null
+     * @return the number of solutions found
+     */
+    public int solutions(Cube cube, Frontier frontier, Frontier next) {
+        // a single cube to load each node into
+        Cube node = new Cube(cube);
+        int result = 0;
+
+        for (int i = 0; i < frontier.size(); i++) {
+            int state = frontier.getState(i);
+            int weight = frontier.getWeight(i);
+
+            if (frontier.getDepth(i) + frontier.getEstimate(i) > cube
+                    .getBound()) {
+                // still cut off
+                if (next != null) {
+                    next.add(frontier, i);
+                }
+                continue;
+            }
+
+            frontier.load(i, node);
+            if (next != null && !next.isFull()) {
+                result += solutions(node, state, weight, next);
+            } else {
+                result += weight * solutions(node, state, filter != null);
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Recursive function to find a solution for a given cube, adding the
+     * leaves of the search to a frontier. Stops adding leaves when the
+     * frontier is full.
+     *
+     * @param cube
+     *            cube to solve
+     * @param state
+     *            state of the move filter after the twists done so far
+     * @param weight
+     *            orders of the runs of twists before the current one
+     * @param next
+     *            frontier to add leaves to
+     * @return the number of solutions found
+     */
+    private int solutions(Cube cube, int state, int weight, Frontier next) {
+        if (next.isFull()) {
+            return weight * solutions(cube, state, filter != null);
+        }
+
+        if (cube.isSolved()) {
+            leaves++;
+            return filter == null ? weight : weight * filter.weight(state);
+        }
+
+        if (cube.getTwists() >= cube.getBound()) {
+            leaves++;
+            next.add(cube, state, weight, 0);
+            return 0;
+        }
+
+        if (heuristic != null) {
+            int estimate = heuristic.estimate(cube);
+            if (cube.getTwists() + estimate > cube.getBound()) {
+                cutoffs++;
+                next.add(cube, state, weight, estimate);
+                return 0;
+            }
+        }
+
+        expanded++;
+        int result = 0;
+        int count = cube.getMoveCount();
+
+        for (int move = 0; move < count; move++) {
+            int nextState = MoveFilter.START;
+            int childWeight = weight;
+            if (filter != null) {
+                nextState = filter.next(state, move);
+                if (nextState == MoveFilter.SKIP) {
+                    continue;
+                }
+                if (filter.isNewRun(nextState)) {
+                    // the run ending here can be done in any order
+                    childWeight *= filter.weight(state);
+                }
+            }
+
+            cube.twist(move);
+            result += solutions(cube, nextState, childWeight, next);
+            cube.untwist(move);
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits the search tree of a cube at a given depth, walking the tree up
+     * to that depth the same way as {@link #solutions(Cube)} does. The number
+     * of solutions of the cube is the number returned plus the solutions of
+     * all subtrees. Symmetric subtrees are merged into one, if this solver
+     * looks for them.
+     *
+     * @param cube
+     *            cube to solve, with the bound set. The cube is twisted, but
+     *            is back in its original state when this function returns.
+     * @param depth
+     *            depth of the subtrees
+     * @param subtrees
+     *            list to add the subtrees to
+     * @return the number of solutions found above the given depth
+     */
+    public int split(Cube cube, int depth, List<Subtree> subtrees) {
+        if (symmetry == null) {
+            return split(cube, MoveFilter.START, 1, new int[depth], 0,
+                    subtrees);
+        }
+
+        List<Subtree> all = new ArrayList<Subtree>();
+        int result = split(cube, MoveFilter.START, 1, new int[depth], 0, all);
+        merge(cube, all, subtrees);
+        return result;
+    }
+
+    /**
+     * Merges subtrees of a cube with symmetric roots into one subtree, which
+     * counts the orders of the runs of twists of all of them.
+     *
+     * @param cube
+     *            cube the subtrees were split from
+     * @param subtrees
+     *            the subtrees
+     * @param merged
+     *            list to add one subtree for each set of symmetric subtrees
+     *            to, in the order of the first subtree of each set
+     */
+    private void merge(Cube cube, List<Subtree> subtrees,
+            List<Subtree> merged) {
+        Map<Representative, Subtree> representatives = new LinkedHashMap<Representative, Subtree>();
+        int elements = Cube.SIDES * cube.getSize() * cube.getSize();
+
+        for (Subtree subtree : subtrees) {
+            subtree.apply(cube);
+            int turn = symmetry.canonical(cube);
+            byte[] colors = new byte[elements];
+            symmetry.conjugate(cube, turn, colors);
+            subtree.undo(cube);
+
+            int state = subtree.getState();
+            if (filter != null) {
+                state = filter.conjugate(state, symmetry.getMoves(turn));
+            }
+            Representative key = new Representative(colors, state);
+
+            Subtree first = representatives.get(key);
+            if (first == null) {
+                representatives.put(key, subtree);
+            } else {
+                representatives.put(key, first.withWeight(first.getWeight()
+                        + subtree.getWeight()));
+            }
+        }
+
+        merged.addAll(representatives.values());
+    }
+
+    /**
+     * Recursive function to split the search tree of a cube.
+     *
+     * @param cube
+     *            cube to solve
+     * @param state
+     *            state of the move filter after the twists done so far
+     * @param weight
+     *            orders of the runs of twists before the current one
+     * @param moves
+     *            twists done so far, with room up to the split depth
+     * @param depth
+     *            number of twists done so far
+     * @param subtrees
+     *            list to add subtrees to
+     * @return the number of solutions found before the split depth
+     */
+    private int split(Cube cube, int state, int weight, int[] moves,
+            int depth, List<Subtree> subtrees) {
+        if (depth == moves.length) {
+            subtrees.add(new Subtree(Arrays.copyOf(moves, depth), state,
+                    weight));
+            return 0;
+        }
+
+        if (cube.isSolved()) {
+            leaves++;
+            return filter == null ? weight : weight * filter.weight(state);
+        }
+
+        if (cube.getTwists() >= cube.getBound()) {
+            leaves++;
+            return 0;
+        }
+
+        if (heuristic != null
+                && cube.getTwists() + heuristic.estimate(cube) > cube
+                        .getBound()) {
+            cutoffs++;
+            return 0;
+        }
+
+        expanded++;
+        int result = 0;
+        int count = cube.getMoveCount();
+
+        for (int move = 0; move < count; move++) {
+            int next = MoveFilter.START;
+            int childWeight = weight;
+            if (filter != null) {
+                next = filter.next(state, move);
+                if (next == MoveFilter.SKIP) {
+                    continue;
+                }
+                if (filter.isNewRun(next)) {
+                    // the run ending here can be done in any order
+                    childWeight *= filter.weight(state);
+                }
+            }
+
+            moves[depth] = move;
+            cube.twist(move);
+            result += split(cube, next, childWeight, moves, depth + 1,
+                    subtrees);
+            cube.untwist(move);
+        }
+
+        return result;
+    }
+
+    /**
+     * Recursive function to find a solution for a given cube.
+     *
+     * @param cube
+     *            cube to solve
+     * @param state
+     *            state of the move filter after the twists done so far
+     * @param pruning
+     *            if the move filter should be used
+     * @return the number of solutions found, counting each run of twists on
+     *         the same axis in all possible orders
+     */
+    private int solutions(Cube cube, int state, boolean pruning) {
+        if (cube.isSolved()) {
+            return pruning ? filter.weight(state) : 1;
+        }
+
+        if (cube.getTwists() >= cube.getBound()) {
+            leaves++;
+            return 0;
+        }
+
+        if (heuristic != null
+                && cube.getTwists() + heuristic.estimate(cube) > cube
+                        .getBound()) {
+            // cannot be solved within the bound
+            cutoffs++;
+            return 0;
+        }
+
+        int left = cube.getBound() - cube.getTwists();
+        long key = 0;
+        if (table != null && left >= TABLE_MIN_LEFT) {
+            key = table.key(cube, state, left);
+            int known = table.get(key);
+            if (known >= 0) {
+                tableHits++;
+                return known;
+            }
+            tableMisses++;
+        }
+
+        expanded++;
+        int result = 0;
+        int moves = cube.getMoveCount();
+
+        if (left == 1) {
+            // children are leaves, counted here as most are never twisted
+            leaves += pruning ? filter.children(state) : moves;
+        }
+
+        // all children are leaves: check them all at once
+        boolean batch = left == 1 && moves <= Cube.MAX_BATCH_MOVES;
+        long solved = 0;
+        if (batch) {
+            solved = cube.solvedAfter();
+            if (solved == 0) {
+                return 0;
+            }
+        }
+
+        for (int move = 0; move < moves; move++) {
+            int next = MoveFilter.START;
+            if (pruning) {
+                next = filter.next(state, move);
+                if (next == MoveFilter.SKIP) {
+                    continue;
+                }
+            }
+
+            if (left == 1) {
+                boolean leaf = batch ? (solved & (1L << move)) != 0 : cube
+                        .isSolvedAfter(move);
+                if (!leaf) {
+                    // a leaf which is not solved, no need to twist the cube
+                    continue;
+                }
+            }
+
+            cube.twist(move);
+
+            // recursion step
+            int childSolutions = solutions(cube, next, pruning);
+            if (childSolutions > 0) {
+                if (pruning && filter.isNewRun(next)) {
+                    // the run ending here can be done in any order
+                    childSolutions *= filter.weight(state);
+                }
+                result += childSolutions;
+                if (Rubiks.PRINT_SOLUTION) {
+                    cube.print(System.err);
+                }
+            }
+
+            cube.untwist(move);
+        }
+
+        if (table != null && left >= TABLE_MIN_LEFT) {
+            table.put(key, left, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Adds the nodes searched by this solver since the last call to the
+     * statistics of the current bound, and starts counting from 0 again.
+     * Should not be called while searching.
+     *
+     * @param statistics
+     *            statistics to add to
+     */
+    public void collect(SearchStatistics statistics) {
+        statistics.addSearch(expanded, leaves, cutoffs, tableHits,
+                tableMisses);
+
+        expanded = 0;
+        leaves = 0;
+        cutoffs = 0;
+        tableHits = 0;
+        tableMisses = 0;
+    }
+
+    /**
+     * Root of a subtree turned into the representative of its symmetric
+     * roots: the colors of the turned cube, and the matching state of the
+     * move filter.
+     */
+    private static final class Representative {
+
+        private final byte[] colors;
+
+        private final int state;
+
+        Representative(byte[] colors, int state) {
+            this.colors = colors;
+            this.state = state;
+        }
+
+        public boolean equals(Object other) {
+            if (!(other instanceof Representative)) {
+                return false;
+            }
+            Representative that = (Representative) other;
+            return state == that.state && Arrays.equals(colors, that.colors);
+        }
+
+        public int hashCode() {
+            return (31 * Arrays.hashCode(colors)) + state;
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+package rubiks.sequential;
+
+/**
+ * Hash table from cube states to counts, using open addressing with linear
+ * probing in a few primitive arrays. A state is given as two longs, of which
+ * the first must not be negative. No objects are created per state.
+ *
+ */
+final class StateTable {
+
+    // largest fraction of slots in use before growing
+    private static final double LOAD_FACTOR = 0.7;
+
+    // first part of the key plus one in each slot, or 0 if the slot is empty
+    private long[] highs;
+
+    private long[] lows;
+
+    private int[] counts;
+
+    // number of states in the table
+    private int size = 0;
+
+    // number of states at which the table grows
+    private int threshold;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param capacity
+     *            initial number of slots, a power of two
+     */
+    StateTable(int capacity) {
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        counts = new int[capacity];
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * Returns the slot to start looking for a state.
+     */
+    private int hash(long high, long low) {
+        long hash = (high * 0x9e3779b97f4a7c15L) ^ low;
+        // mix the bits (finalizer of MurmurHash3)
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int) hash & (highs.length - 1);
+    }
+
+    /**
+     * Adds to the count of a state, inserting it if it is not in the table
+     * yet.
+     *
+     * @param high
+     *            first part of the state, at least 0
+     * @param low
+     *            second part of the state
+     * @param count
+     *            number to add
+     */
+    void add(long high, long low, int count) {
+        int mask = highs.length - 1;
+        long key = high + 1;
+
+        for (int slot = hash(high, low);; slot = (slot + 1) & mask) {
+            if (highs[slot] == 0) {
+                highs[slot] = key;
+                lows[slot] = low;
+                counts[slot] = count;
+                size++;
+                if (size > threshold) {
+                    grow();
+                }
+                return;
+            }
+            if (highs[slot] == key && lows[slot] == low) {
+                counts[slot] += count;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the count of a state.
+     *
+     * @param high
+     *            first part of the state, at least 0
+     * @param low
+     *            second part of the state
+     * @return the count of the state, or 0 if it is not in the table
+     */
+    int get(long high, long low) {
+        int mask = highs.length - 1;
+        long key = high + 1;
+
+        for (int slot = hash(high, low);; slot = (slot + 1) & mask) {
+            if (highs[slot] == 0) {
+                return 0;
+            }
+            if (highs[slot] == key && lows[slot] == low) {
+                return counts[slot];
+            }
+        }
+    }
+
+    /**
+     * Doubles the number of slots, and puts all states in their new slots.
+     */
+    private void grow() {
+        if (highs.length >= 1 << 30) {
+            throw new Error("too many states for a table: " + size);
+        }
+
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        int[] oldCounts = counts;
+        allocate(oldHighs.length * 2);
+        int mask = highs.length - 1;
+
+        for (int i = 0; i < oldHighs.length; i++) {
+            if (oldHighs[i] != 0) {
+                int slot = hash(oldHighs[i] - 1, oldLows[i]);
+                while (highs[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                highs[slot] = oldHighs[i];
+                lows[slot] = oldLows[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    /**
+     * Returns the number of states in the table.
+     */
+    int size() {
+        return size;
+    }
+
+}
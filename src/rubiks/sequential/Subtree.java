@@ -0,0 +1,72 @@
+package rubiks.sequential;
+
+import java.io.Serializable;
+
+/**
+ * Part of the search tree below a cube: the twists leading from the cube to
+ * the root of the subtree, and what is needed to continue the search from
+ * there with {@link Solver#solutions(Cube, Subtree)}. Created by
+ * {@link Solver#split(Cube, int, java.util.List)}.
+ *
+ */
+public final class Subtree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // twists from the cube to the root of the subtree
+    private final int[] moves;
+
+    // state of the move filter after these twists
+    private final int state;
+
+    // orders of the runs of twists before the run in progress, which all
+    // have the same result
+    private final int weight;
+
+    Subtree(int[] moves, int state, int weight) {
+        this.moves = moves;
+        this.state = state;
+        this.weight = weight;
+    }
+
+    /**
+     * Twists a cube to the root of this subtree.
+     *
+     * @param cube
+     *            the cube the tree was split for
+     */
+    public void apply(Cube cube) {
+        for (int move : moves) {
+            cube.twist(move);
+        }
+    }
+
+    /**
+     * Twists a cube back from the root of this subtree.
+     *
+     * @param cube
+     *            cube twisted by {@link #apply(Cube)}
+     */
+    public void undo(Cube cube) {
+        for (int i = moves.length - 1; i >= 0; i--) {
+            cube.untwist(moves[i]);
+        }
+    }
+
+    /**
+     * Returns this subtree with a different weight, for instance to stand for
+     * symmetric subtrees as well.
+     */
+    Subtree withWeight(int newWeight) {
+        return new Subtree(moves, state, newWeight);
+    }
+
+    int getState() {
+        return state;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+
+}
@@ -0,0 +1,140 @@
+package rubiks.sequential;
+
+/**
+ * Table of the number of solutions found for states of a cube, to skip
+ * states reached again by a different sequence of twists. The number of
+ * solutions below a node only depends on the cube, the state of the
+ * {@link MoveFilter} and the number of twists left up to the bound, so all
+ * three are part of the key. The count stored is exact, so solutions are
+ * still counted correctly, and a count of 0 proves a state has no solution
+ * within the twists left.
+ *
+ * Cubes are hashed to 64 bits with {@link Cube#hash()}. Only the hash is
+ * stored, so two states with the same hash are taken to be the same. With 64
+ * bits this is extremely unlikely.
+ *
+ * The table has a fixed size, in pairs of slots. The first slot of a pair
+ * keeps the entry with the most twists left, which saved the most work. The
+ * second slot always takes the newest entry.
+ *
+ * The table can be shared by any number of threads without locks. Each slot
+ * is two longs: the data, and the key xor-ed with the data. A slot written
+ * by two threads at once has a key and data which do not match, and is
+ * ignored.
+ *
+ */
+public final class TranspositionTable {
+
+    // bytes used by a slot
+    private static final int SLOT_BYTES = 16;
+
+    // layout of the data of a slot: count, then twists left
+
+    private static final long COUNT_MASK = 0xffffffffL;
+
+    private static final int LEFT_SHIFT = 32;
+
+    // key xor data, and data, of each slot
+    private final long[] keys;
+
+    private final long[] data;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param memory
+     *            memory to use for the table, in bytes
+     */
+    public TranspositionTable(long memory) {
+        // largest power of two of slots fitting in the memory
+        int slots = 2;
+        while (slots < 1 << 30 && slots * 2L * SLOT_BYTES <= memory) {
+            slots *= 2;
+        }
+        keys = new long[slots];
+        data = new long[slots];
+    }
+
+    /**
+     * Returns the key of a node of the search.
+     *
+     * @param cube
+     *            cube at the node
+     * @param state
+     *            state of the move filter
+     * @param left
+     *            twists left up to the bound
+     * @return the key of the node
+     */
+    long key(Cube cube, int state, int left) {
+        return cube.hash() ^ mix(((long) state << 8) | left);
+    }
+
+    /**
+     * Spreads the bits of a number over all 64 bits (finalizer of
+     * MurmurHash3).
+     */
+    private static long mix(long value) {
+        long result = value;
+        result ^= result >>> 33;
+        result *= 0xff51afd7ed558ccdL;
+        result ^= result >>> 33;
+        result *= 0xc4ceb9fe1a85ec53L;
+        result ^= result >>> 33;
+        return result;
+    }
+
+    /**
+     * Returns the number of solutions stored for a node.
+     *
+     * @param key
+     *            key of the node, see {@link #key(Cube, int, int)}
+     * @return the number of solutions, or -1 if not in the table
+     */
+    int get(long key) {
+        int slot = (int) key & (keys.length - 2);
+
+        for (int i = slot; i < slot + 2; i++) {
+            long value = data[i];
+            if ((keys[i] ^ value) == key && value != 0) {
+                return (int) (value & COUNT_MASK);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the number of solutions of a node.
+     *
+     * @param key
+     *            key of the node, see {@link #key(Cube, int, int)}
+     * @param left
+     *            twists left up to the bound at the node
+     * @param count
+     *            number of solutions below the node
+     */
+    void put(long key, int left, int count) {
+        int slot = (int) key & (keys.length - 2);
+        // never 0, so an empty slot does not match any key
+        long value = ((long) (left + 1) << LEFT_SHIFT) | (count & COUNT_MASK);
+
+        long old = data[slot];
+        if ((old >>> LEFT_SHIFT) > left + 1 && (keys[slot] ^ old) != key) {
+            // keep the entry which saved more work in the first slot
+            slot++;
+        }
+
+        data[slot] = value;
+        keys[slot] = key ^ value;
+    }
+
+    /**
+     * Returns the memory used by this table.
+     *
+     * @return the memory used, in bytes
+     */
+    public long getMemory() {
+        return (long) keys.length * SLOT_BYTES;
+    }
+
+}
@@ -0,0 +1,325 @@
+package rubiks.sequential;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import rubiks.search.Heuristic;
+
+/**
+ * Estimates the size of the search tree of a cube for a bound, and the time
+ * needed to search it, without searching it. Used to predict how long solving
+ * a cube takes, or to size the parts of a search given to different
+ * machines.
+ *
+ * The number of nodes is estimated by random probes (Knuth, "Estimating the
+ * efficiency of backtrack programs", 1975): a probe follows a single random
+ * path from the root down the tree, taking a random child at every node. A
+ * node at depth d with c children stands for c times as many nodes at depth d
+ * + 1 as its parent, so the product of the number of children of all nodes
+ * above a depth estimates the number of nodes at that depth. The average over
+ * many probes converges to the size of the tree, although with a heuristic
+ * cutting off most of the tree it takes many probes for the estimate to come
+ * close.
+ *
+ * The tree probed is the tree searched by a {@link Solver} with the same
+ * pruning and heuristic: the cube is twisted in place, redundant twists are
+ * skipped by a {@link MoveFilter}, and nodes the heuristic cuts off have no
+ * children. Nodes are counted the same way as in {@link SearchStatistics}.
+ * Nodes found in a {@link TranspositionTable} and symmetric subtrees are not
+ * taken into account, so the estimate is too high for a search using these.
+ *
+ * The time needed is estimated from the number of nodes per second of a real
+ * search. The bounds of which the estimated tree is small are actually
+ * searched with a single thread, which also gives the exact number of nodes
+ * of these bounds. Small searches run slower than big ones, as the JIT
+ * compiler is still at work, so estimated times are on the high side.
+ *
+ * An estimator is not thread safe.
+ *
+ */
+public class TreeEstimator {
+
+    /**
+     * Number of probes used if none is given.
+     */
+    public static final int DEFAULT_PROBES = 1000;
+
+    // largest estimated number of nodes of a bound which is searched to
+    // measure the nodes per second
+    private static final double SEARCH_NODES = 1 << 22;
+
+    /**
+     * Estimated search of a single bound.
+     */
+    public static final class Estimate {
+
+        private final int bound;
+
+        private final double nodes;
+
+        private final double millis;
+
+        private final int solutions;
+
+        Estimate(int bound, double nodes, double millis, int solutions) {
+            this.bound = bound;
+            this.nodes = nodes;
+            this.millis = millis;
+            this.solutions = solutions;
+        }
+
+        /**
+         * Returns the bound.
+         *
+         * @return the bound
+         */
+        public int getBound() {
+            return bound;
+        }
+
+        /**
+         * Returns the number of nodes of the search tree of the bound.
+         *
+         * @return the (estimated) number of nodes
+         */
+        public double getNodes() {
+            return nodes;
+        }
+
+        /**
+         * Returns the time needed to search the bound with a single thread.
+         *
+         * @return the (estimated) time in milliseconds
+         */
+        public double getMillis() {
+            return millis;
+        }
+
+        /**
+         * Returns if the bound was actually searched, so the number of nodes
+         * and time are measured instead of estimated.
+         *
+         * @return true if the bound was searched
+         */
+        public boolean isSearched() {
+            return solutions >= 0;
+        }
+
+        /**
+         * Returns the number of solutions found within the bound.
+         *
+         * @return the number of solutions, or -1 if the bound was not
+         *         searched
+         */
+        public int getSolutions() {
+            return solutions;
+        }
+
+    }
+
+    // filter for redundant twists, or null to search all twists
+    private final MoveFilter filter;
+
+    // lower bound for the twists needed to solve a cube, or null if none
+    private final Heuristic heuristic;
+
+    private final int probes;
+
+    private final Random random;
+
+    // solver for the bounds actually searched
+    private final Solver solver;
+
+    // twists done by the current probe
+    private int[] moves = new int[0];
+
+    // twists which can be done at the current node of a probe
+    private final int[] children;
+
+    /**
+     * Creates an estimator for the search of cubes of a given size.
+     *
+     * @param size
+     *            size of the cubes
+     * @param pruning
+     *            if true, the search skips redundant sequences of twists
+     * @param heuristic
+     *            estimate used to cut off the search, or null if none. Not
+     *            used by other threads at the same time.
+     * @param probes
+     *            number of probes per estimate
+     * @param seed
+     *            seed of the random choices of the probes
+     */
+    public TreeEstimator(int size, boolean pruning, Heuristic heuristic,
+            int probes, long seed) {
+        this.heuristic = heuristic;
+        this.probes = probes;
+        this.random = new Random(seed);
+        this.solver = new Solver(size, pruning, heuristic);
+        this.children = new int[new Cube(size).getMoveCount()];
+
+        if (pruning) {
+            filter = new MoveFilter(size);
+        } else {
+            filter = null;
+        }
+    }
+
+    /**
+     * Estimates the number of nodes of the search tree of a cube, up to the
+     * bound set in the cube. The cube is twisted, but is back in its original
+     * state when this function returns.
+     *
+     * @param cube
+     *            the cube
+     * @return the estimated number of nodes
+     */
+    public double nodes(Cube cube) {
+        return nodes(cube, MoveFilter.START);
+    }
+
+    /**
+     * Estimates the number of nodes of a subtree of the search tree of a
+     * cube, up to the bound set in the cube, for instance to size the
+     * subtrees given to different machines.
+     *
+     * @param cube
+     *            cube the subtree was split from
+     * @param subtree
+     *            the subtree
+     * @return the estimated number of nodes
+     */
+    public double nodes(Cube cube, Subtree subtree) {
+        subtree.apply(cube);
+        double result = nodes(cube, subtree.getState());
+        subtree.undo(cube);
+        return result;
+    }
+
+    private double nodes(Cube cube, int state) {
+        double sum = 0;
+
+        for (int i = 0; i < probes; i++) {
+            sum += probe(cube, state);
+        }
+        return sum / probes;
+    }
+
+    /**
+     * Follows a random path down the search tree, and returns the number of
+     * nodes of the tree it stands for.
+     */
+    private double probe(Cube cube, int state) {
+        int left = cube.getBound() - cube.getTwists();
+        if (moves.length < left) {
+            moves = new int[left];
+        }
+
+        // nodes at the depth of the current node this path stands for
+        double weight = 1;
+        double result = 0;
+        int depth = 0;
+
+        while (true) {
+            if (cube.isSolved() || cube.getTwists() >= cube.getBound()) {
+                result += weight;
+                break;
+            }
+
+            if (heuristic != null
+                    && cube.getTwists() + heuristic.estimate(cube) > cube
+                            .getBound()) {
+                result += weight;
+                break;
+            }
+
+            int count = 0;
+            for (int move = 0; move < children.length; move++) {
+                if (filter == null
+                        || filter.next(state, move) != MoveFilter.SKIP) {
+                    children[count] = move;
+                    count++;
+                }
+            }
+
+            result += weight;
+            weight *= count;
+            if (count == 0) {
+                break;
+            }
+
+            if (cube.getBound() - cube.getTwists() == 1) {
+                // children are leaves, no need to go there
+                result += weight;
+                break;
+            }
+
+            int move = children[random.nextInt(count)];
+            if (filter != null) {
+                state = filter.next(state, move);
+            }
+            cube.twist(move);
+            moves[depth] = move;
+            depth++;
+        }
+
+        for (int i = depth - 1; i >= 0; i--) {
+            cube.untwist(moves[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Estimates the search of a cube for every bound in turn, as done by
+     * {@link Rubiks}, until a bound is found with solutions or the given
+     * largest bound. Bounds of which the tree is small are actually searched.
+     * The bound set in the cube is changed.
+     *
+     * @param cube
+     *            the cube
+     * @param maxBound
+     *            largest bound to estimate
+     * @return the estimate for each bound, starting at bound 1
+     */
+    public List<Estimate> estimate(Cube cube, int maxBound) {
+        List<Estimate> result = new ArrayList<Estimate>();
+        SearchStatistics statistics = new SearchStatistics();
+
+        // nodes per second of the biggest bound searched so far
+        double rate = 0;
+        double rateNodes = 0;
+        boolean searching = true;
+
+        for (int bound = 1; bound <= maxBound; bound++) {
+            cube.setBound(bound);
+            double nodes = nodes(cube);
+
+            if (searching && nodes <= SEARCH_NODES) {
+                statistics.startBound(bound);
+                int solutions = solver.solutions(cube);
+                solver.collect(statistics);
+                SearchStatistics.Bound searched = statistics.endBound();
+
+                if (searched.getNodes() >= rateNodes) {
+                    rate = searched.getNodesPerSecond();
+                    rateNodes = searched.getNodes();
+                }
+                result.add(new Estimate(bound, searched.getNodes(),
+                        searched.getNanos() / 1e6, solutions));
+                if (solutions > 0) {
+                    break;
+                }
+            } else {
+                // bigger bounds are bigger still
+                searching = false;
+                result.add(new Estimate(bound, nodes, nodes * 1000 / rate,
+                        -1));
+            }
+        }
+
+        return result;
+    }
+
+}